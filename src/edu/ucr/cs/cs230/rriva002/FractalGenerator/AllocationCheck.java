@@ -0,0 +1,108 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+//Checks that each fractal's distance estimators don't allocate any memory, both the
+//single-position estimate and the batch estimate with scratch arrays, with every math tier. The
+//bytes allocated by the thread are read before and after a loop of estimates that runs after
+//warming up the JIT compiler, and must not grow. Exits with status 1 if any estimator allocates,
+//or with status 2 if the JVM can't measure allocations.
+public class AllocationCheck
+{
+	private static final int batchSize = 16, warmUpCalls = 200000, calls = 100000;
+	private static double sink = 0.0;
+	
+	//Checks every fractal's estimators with every math tier.
+	public static void main(String[] args)
+	{
+		com.sun.management.ThreadMXBean threads;
+		boolean failed = false;
+		
+		//Allocations can only be measured on JVMs that support it.
+		if(!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+		{
+			System.err.println("This JVM can't measure allocations.");
+			System.exit(2);
+		}
+		
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		
+		if(!threads.isThreadAllocatedMemorySupported())
+		{
+			System.err.println("This JVM can't measure allocations.");
+			System.exit(2);
+		}
+		
+		threads.setThreadAllocatedMemoryEnabled(true);
+		
+		for(Fractal fractal : Main.createFractals())
+		{
+			for(MathProvider math : MathProvider.values())
+			{
+				fractal.setMathProvider(math);
+				
+				failed |= !check(threads, fractal, false);
+				failed |= !check(threads, fractal, true);
+			}
+		}
+		
+		if(failed)
+		{
+			System.exit(1);
+		}
+	}
+	
+	//Checks whether the given fractal's single-position or batch estimator allocates, prints the
+	//bytes allocated per call and returns whether there were none.
+	private static boolean check(com.sun.management.ThreadMXBean threads, Fractal fractal,
+		boolean batch)
+	{
+		Random random = new Random(1);
+		long thread = Thread.currentThread().getId(), bytes;
+		double[] xs = new double[batchSize], ys = new double[batchSize], zs = new double[batchSize];
+		double[] out = new double[batchSize];
+		double[][] scratch = new double[Fractal.batchScratchArrays][batchSize];
+		double radius = fractal.getBoundingRadius();
+		
+		for(int i = 0; i < batchSize; i++)
+		{
+			xs[i] = (random.nextDouble() * 2.0 - 1.0) * radius;
+			ys[i] = (random.nextDouble() * 2.0 - 1.0) * radius;
+			zs[i] = (random.nextDouble() * 2.0 - 1.0) * radius;
+		}
+		
+		estimate(fractal, batch, xs, ys, zs, out, scratch, warmUpCalls);
+		
+		bytes = threads.getThreadAllocatedBytes(thread);
+		
+		estimate(fractal, batch, xs, ys, zs, out, scratch, calls);
+		
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+		
+		System.out.println(String.format("%s, %s, %s: %.3f bytes per call %s", fractal,
+			fractal.getMathProvider(), batch ? "batch" : "single", (double) bytes / calls,
+			bytes == 0 ? "OK" : "FAILED"));
+		return bytes == 0;
+	}
+	
+	//Runs the given number of estimates at the given positions, one position at a time or as
+	//batches.
+	private static void estimate(Fractal fractal, boolean batch, double[] xs, double[] ys,
+		double[] zs, double[] out, double[][] scratch, int calls)
+	{
+		for(int i = 0; i < calls; i++)
+		{
+			if(batch)
+			{
+				fractal.estimateDistance(xs, ys, zs, out, scratch, batchSize);
+				sink += out[i % batchSize];
+			}
+			else
+			{
+				sink += fractal.estimateDistance(xs[i % batchSize], ys[i % batchSize],
+					zs[i % batchSize]);
+			}
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+
+//An animation for the animation renderer, read from a properties file that lists its keyframes.
+//The keys are:
+//  frames               The number of frames, numbered from 0 (required)
+//  keyframe.<n>         The scene file for frame n, relative to the animation file (at least one
+//                       is required)
+//  output               The frame files, relative to the animation file, as a format string for
+//                       the frame number (default: the animation's name followed by %04d.png).
+//                       Their extension gives the image format.
+//  threads              The number of render threads shared by every frame, or 0 for one per
+//                       processor (default 0)
+//  concurrentFrames     The most frames rendered at once (default 2)
+//The camera's position, direction and up vector and the fractal's parameters are interpolated
+//between keyframes with cubic splines, and held before the first keyframe and after the last. The
+//keyframes must have the same fractal and image dimensions. The render settings and lights are
+//taken from the first keyframe.
+public class Animation
+{
+	private final String name, outputFormat;
+	private final Properties properties = new Properties();
+	private final File directory;
+	private final List<Integer> keyframes = new ArrayList<Integer>();
+	private final List<Scene> scenes = new ArrayList<Scene>();
+	private final String[] parameters;
+	private final double[][] values;
+	private final int frames, threads, concurrentFrames;
+	private static final String keyframePrefix = "keyframe.";
+	private static final int cameraValues = 9;
+	
+	//Constructor. Reads the animation and its keyframes' scenes from the given file. Throws an
+	//IllegalArgumentException if it has an unknown key or a missing or invalid value.
+	public Animation(File file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		String fileName = file.getName(), format;
+		Fractal fractal;
+		Scene scene;
+		
+		try
+		{
+			properties.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		
+		if(fileName.lastIndexOf('.') > 0)
+		{
+			fileName = fileName.substring(0, fileName.lastIndexOf('.'));
+		}
+		
+		this.name = file.getName();
+		this.directory = file.getAbsoluteFile().getParentFile();
+		this.outputFormat = properties.getProperty("output", fileName + "%04d.png").trim();
+		this.frames = getInt("frames", 0, 1);
+		this.threads = getInt("threads", 0, 0);
+		this.concurrentFrames = getInt("concurrentFrames", 2, 1);
+		
+		//Read the keyframes' scenes in order.
+		for(String key : properties.stringPropertyNames())
+		{
+			if(key.startsWith(keyframePrefix))
+			{
+				keyframes.add(parseKeyframe(key));
+			}
+			else if(!key.equals("frames") && !key.equals("output") && !key.equals("threads") &&
+				!key.equals("concurrentFrames"))
+			{
+				throw new IllegalArgumentException("Unknown key " + key);
+			}
+		}
+		
+		if(keyframes.isEmpty())
+		{
+			throw new IllegalArgumentException("No keyframes given");
+		}
+		
+		Collections.sort(keyframes);
+		
+		for(int keyframe : keyframes)
+		{
+			String sceneFile = properties.getProperty(keyframePrefix + keyframe).trim();
+			
+			scenes.add(new Scene(new File(directory, sceneFile)));
+		}
+		
+		//The frame files must have a format that can be written.
+		format = getOutput(0).getName().substring(getOutput(0).getName().lastIndexOf('.') + 1);
+		
+		if(!ImageIO.getImageWritersBySuffix(format.toLowerCase()).hasNext())
+		{
+			throw new IllegalArgumentException("No image writer for " + getOutput(0).getName());
+		}
+		
+		//Store the camera's vectors and the fractal's parameters at each keyframe.
+		fractal = scenes.get(0).createFractal();
+		parameters = new String[fractal.getParameters().size()];
+		values = new double[keyframes.size()][cameraValues + parameters.length];
+		
+		for(int i = 0; i < parameters.length; i++)
+		{
+			parameters[i] = fractal.getParameters().get(i)[0];
+		}
+		
+		for(int i = 0; i < keyframes.size(); i++)
+		{
+			scene = scenes.get(i);
+			fractal = scene.createFractal();
+			
+			//Every keyframe must have the same fractal and image dimensions as the first.
+			if(!fractal.toString().equals(scenes.get(0).createFractal().toString()) ||
+				scene.getWidth() != scenes.get(0).getWidth() ||
+				scene.getHeight() != scenes.get(0).getHeight())
+			{
+				throw new IllegalArgumentException(scene.getName() + ": The fractal and image " +
+					"dimensions must match the first keyframe's");
+			}
+			
+			storeCamera(i, scene.getCameraPosition(fractal), scene);
+			
+			for(int j = 0; j < parameters.length; j++)
+			{
+				values[i][cameraValues + j] = Double.parseDouble(fractal.getParameters().get(j)[1]);
+			}
+		}
+	}
+	
+	//Sets the renderer's fractal, render settings, lights and camera for the given frame.
+	public void apply(FractalRenderer renderer, int frame)
+	{
+		double[] frameValues = interpolate(frame);
+		Vector3 position = new Vector3(frameValues[0], frameValues[1], frameValues[2]);
+		Vector3 direction = new Vector3(frameValues[3], frameValues[4], frameValues[5]);
+		Vector3 up = new Vector3(frameValues[6], frameValues[7], frameValues[8]);
+		
+		renderer.setFractal(createFractal(frame, frameValues));
+		renderer.setSettings(scenes.get(0).getSettings());
+		scenes.get(0).apply(renderer);
+		
+		//The interpolated up vector can't be parallel to the direction.
+		if(!renderer.setCamera(position, direction, up))
+		{
+			throw new IllegalArgumentException("Frame " + frame + ": The camera's direction and " +
+				"up vector are parallel");
+		}
+	}
+	
+	//Returns a new instance of the fractal with its parameters interpolated for the given frame.
+	public Fractal createFractal(int frame)
+	{
+		return createFractal(frame, interpolate(frame));
+	}
+	
+	//Returns a new instance of the fractal with the parameters in the given interpolated values
+	//for the given frame.
+	private Fractal createFractal(int frame, double[] frameValues)
+	{
+		Fractal fractal = scenes.get(0).createFractal();
+		double value;
+		
+		//Set the parameters in the order the fractal lists them. The iterations are rounded.
+		for(int i = 0; i < parameters.length; i++)
+		{
+			value = frameValues[cameraValues + i];
+			value = parameters[i].equals(Fractal.iterationsString) ? Math.round(value) : value;
+			
+			if(!fractal.setParameter(parameters[i], value))
+			{
+				throw new IllegalArgumentException("Frame " + frame + ": Invalid value " + value +
+					" for " + parameters[i]);
+			}
+		}
+		
+		return fractal;
+	}
+	
+	//Returns the most frames rendered at once.
+	public int getConcurrentFrames()
+	{
+		return concurrentFrames;
+	}
+	
+	//Returns the number of frames.
+	public int getFrames()
+	{
+		return frames;
+	}
+	
+	//Returns the image's height in pixels.
+	public int getHeight()
+	{
+		return scenes.get(0).getHeight();
+	}
+	
+	//Returns the value of the given key as an integer that's at least the given minimum, or the
+	//default value if the animation doesn't have the key. A default below the minimum makes the
+	//key required.
+	private int getInt(String key, int defaultValue, int min)
+	{
+		int value;
+		
+		if(properties.getProperty(key) == null && defaultValue < min)
+		{
+			throw new IllegalArgumentException("No " + key + " given");
+		}
+		
+		if(properties.getProperty(key) == null)
+		{
+			return defaultValue;
+		}
+		
+		try
+		{
+			value = Integer.parseInt(properties.getProperty(key).trim());
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException(key + ": Not an integer");
+		}
+		
+		if(value < min)
+		{
+			throw new IllegalArgumentException(key + ": Must be " + min + " or more");
+		}
+		
+		return value;
+	}
+	
+	//Returns the animation's file name.
+	public String getName()
+	{
+		return name;
+	}
+	
+	//Returns the file to write the given frame to.
+	public File getOutput(int frame)
+	{
+		return new File(directory, String.format(outputFormat, frame));
+	}
+	
+	//Returns the number of render threads shared by every frame, or 0 for one per processor.
+	public int getThreads()
+	{
+		return threads;
+	}
+	
+	//Returns the image's width in pixels.
+	public int getWidth()
+	{
+		return scenes.get(0).getWidth();
+	}
+	
+	//Returns the camera's vectors and fractal's parameters at the given frame. Between two
+	//keyframes, each value follows a cubic Hermite spline whose slope at each keyframe is the
+	//slope between its neighboring keyframes (or the next or previous keyframe at the ends), so
+	//the camera moves smoothly through unevenly spaced keyframes and passes through each one
+	//exactly.
+	private double[] interpolate(int frame)
+	{
+		double[] frameValues = new double[values[0].length];
+		int last = keyframes.size() - 1, i = 0;
+		double length, s, s2, s3;
+		
+		//Hold the first and last keyframes' values before and after them.
+		if(frame <= keyframes.get(0) || frame >= keyframes.get(last))
+		{
+			return values[frame <= keyframes.get(0) ? 0 : last].clone();
+		}
+		
+		//Find the keyframes before and after the frame.
+		while(keyframes.get(i + 1) < frame)
+		{
+			i++;
+		}
+		
+		length = keyframes.get(i + 1) - keyframes.get(i);
+		s = (frame - keyframes.get(i)) / length;
+		s2 = s * s;
+		s3 = s2 * s;
+		
+		for(int j = 0; j < frameValues.length; j++)
+		{
+			frameValues[j] = (2.0 * s3 - 3.0 * s2 + 1.0) * values[i][j] +
+				(s3 - 2.0 * s2 + s) * length * slope(i, j) +
+				(3.0 * s2 - 2.0 * s3) * values[i + 1][j] + (s3 - s2) * length * slope(i + 1, j);
+		}
+		
+		return frameValues;
+	}
+	
+	//Returns the frame number of the given keyframe key.
+	private int parseKeyframe(String key)
+	{
+		int frame;
+		
+		try
+		{
+			frame = Integer.parseInt(key.substring(keyframePrefix.length()));
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Unknown key " + key);
+		}
+		
+		//Each keyframe can only be given once, so its number must be written plainly.
+		if(!key.equals(keyframePrefix + frame))
+		{
+			throw new IllegalArgumentException("Unknown key " + key);
+		}
+		
+		//The keyframe must be one of the animation's frames.
+		if(frame < 0 || frame >= frames)
+		{
+			throw new IllegalArgumentException(key + ": Must be a frame from 0 to " + (frames - 1));
+		}
+		
+		return frame;
+	}
+	
+	//Returns the slope per frame of the given value at the keyframe with the given index.
+	private double slope(int keyframe, int j)
+	{
+		int previous = Math.max(0, keyframe - 1), next = Math.min(keyframe + 1, values.length - 1);
+		
+		return (values[next][j] - values[previous][j]) /
+			(double) (keyframes.get(next) - keyframes.get(previous));
+	}
+	
+	//Stores the normalized camera vectors of the keyframe with the given index, which is at the
+	//given position.
+	private void storeCamera(int keyframe, Vector3 position, Scene scene)
+	{
+		Vector3 direction = scene.getCameraDirection(position), up = scene.getCameraUp();
+		Vector3[] vectors;
+		
+		//The up vector can't be parallel to the direction.
+		if(Vector3.cross(direction, up).magnitude() == 0.0)
+		{
+			throw new IllegalArgumentException(scene.getName() + ": The camera's direction and " +
+				"up vector can't be zero or parallel");
+		}
+		
+		//Make the up vector orthogonal to the direction, so interpolated vectors stay apart.
+		up = Vector3.cross(Vector3.cross(direction, up), direction);
+		vectors = new Vector3[]{position, Vector3.normalize(direction), Vector3.normalize(up)};
+		
+		for(int i = 0; i < vectors.length; i++)
+		{
+			values[keyframe][3 * i] = vectors[i].getX();
+			values[keyframe][3 * i + 1] = vectors[i].getY();
+			values[keyframe][3 * i + 2] = vectors[i].getZ();
+		}
+	}
+}
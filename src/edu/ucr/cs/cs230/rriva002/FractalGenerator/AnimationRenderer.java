@@ -0,0 +1,225 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+//Renders the frames of an animation to image files without a display. Several frames are
+//rendered at once, each by its own renderer, on one shared pool, so the tiles of every frame in
+//progress are scheduled on the same threads and a frame's last tiles don't leave threads idle.
+//Each frame is written as soon as it's finished, so memory is bounded by the number of frames
+//rendered at once. Frames are written to a temporary file that's renamed once it's complete, and
+//frames whose files already exist are skipped, so an interrupted animation resumes from its
+//completed frames.
+public class AnimationRenderer
+{
+	private final Animation animation;
+	private final AtomicInteger nextFrame = new AtomicInteger(), rendered = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicLong rays = new AtomicLong(), distanceEstimates = new AtomicLong();
+	private volatile boolean failed = false;
+	private long time = 0;
+	private int threads;
+	
+	//Constructor. Stores the animation to render.
+	public AnimationRenderer(Animation animation)
+	{
+		this.animation = animation;
+	}
+	
+	//Renders each of the given animation files. Exits with status 1 if any of them failed.
+	public static void main(String[] args)
+	{
+		AnimationRenderer animationRenderer;
+		boolean failed = false;
+		
+		//Never open a display, even if one is available.
+		System.setProperty("java.awt.headless", "true");
+		
+		if(args.length == 0)
+		{
+			System.err.println("Usage: AnimationRenderer animation.properties...");
+			System.exit(2);
+		}
+		
+		for(String arg : args)
+		{
+			try
+			{
+				animationRenderer = new AnimationRenderer(new Animation(new File(arg)));
+			}
+			catch(IOException e)
+			{
+				System.err.println(arg + ": " + e.getMessage());
+				failed = true;
+				continue;
+			}
+			catch(IllegalArgumentException e)
+			{
+				System.err.println(arg + ": " + e.getMessage());
+				failed = true;
+				continue;
+			}
+			
+			failed |= !animationRenderer.render();
+			
+			System.out.println(animationRenderer.getReport());
+		}
+		
+		if(failed)
+		{
+			System.exit(1);
+		}
+	}
+	
+	//Returns a summary of the frames rendered and skipped and their combined throughput.
+	public String getReport()
+	{
+		double seconds = time / 1e9;
+		
+		return String.format("%s: %d frames rendered, %d skipped in %.2f s (%.2f frames/s) on %d " +
+			"threads, %d frames at once: %s rays/s, %s DE/s", animation.getName(), rendered.get(),
+			skipped.get(), seconds, seconds > 0.0 ? rendered.get() / seconds : 0.0, threads,
+			animation.getConcurrentFrames(), BatchRenderer.rate(rays.get(), seconds),
+			BatchRenderer.rate(distanceEstimates.get(), seconds));
+	}
+	
+	//Renders every frame that hasn't been written yet on one thread for each frame rendered at
+	//once, sharing one pool. Returns false if a frame failed, in which case no more frames are
+	//started.
+	public boolean render()
+	{
+		final ForkJoinPool pool;
+		Thread[] frameThreads = new Thread[animation.getConcurrentFrames()];
+		long start = System.nanoTime();
+		
+		threads = animation.getThreads();
+		threads = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+		pool = new ForkJoinPool(threads);
+		
+		for(int i = 0; i < frameThreads.length; i++)
+		{
+			frameThreads[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					renderFrames(pool);
+				}
+			});
+			
+			frameThreads[i].start();
+		}
+		
+		//Wait for every frame to finish.
+		for(Thread frameThread : frameThreads)
+		{
+			try
+			{
+				frameThread.join();
+			}
+			catch(InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		
+		pool.shutdown();
+		
+		time += System.nanoTime() - start;
+		
+		return !failed;
+	}
+	
+	//Renders the next frame that hasn't been written yet until there are none left or a frame
+	//fails. The frames share the given pool, but each thread keeps its own renderer.
+	private void renderFrames(ForkJoinPool pool)
+	{
+		FractalRenderer renderer = null;
+		BufferedImage image;
+		File output, temporary;
+		String format;
+		long start, frameTime;
+		int frame;
+		
+		while(!failed && (frame = nextFrame.getAndIncrement()) < animation.getFrames())
+		{
+			output = animation.getOutput(frame);
+			temporary = new File(output.getPath() + ".part");
+			format = output.getName().substring(output.getName().lastIndexOf('.') + 1);
+			
+			//Skip frames that were written by an earlier run.
+			if(output.exists())
+			{
+				skipped.incrementAndGet();
+				continue;
+			}
+			
+			try
+			{
+				if(renderer == null)
+				{
+					renderer = new FractalRenderer(animation.getWidth(), animation.getHeight(),
+						animation.createFractal(frame));
+					
+					renderer.setPool(pool);
+				}
+				
+				animation.apply(renderer, frame);
+				
+				start = System.nanoTime();
+				image = renderer.render();
+				frameTime = System.nanoTime() - start;
+				
+				//Only give the frame its name once it's completely written.
+				if(output.getParentFile() != null)
+				{
+					output.getParentFile().mkdirs();
+				}
+				
+				ImageIO.write(image, format.toLowerCase(), temporary);
+				
+				if(!temporary.renameTo(output))
+				{
+					throw new IOException("Couldn't rename " + temporary + " to " + output);
+				}
+			}
+			catch(IOException e)
+			{
+				System.err.println(animation.getName() + ": Frame " + frame + ": " +
+					e.getMessage());
+				failed = true;
+				return;
+			}
+			catch(IllegalArgumentException e)
+			{
+				System.err.println(animation.getName() + ": " + e.getMessage());
+				failed = true;
+				return;
+			}
+			catch(RuntimeException e)
+			{
+				//Any other exception would otherwise only end this thread, and the animation
+				//would be reported as rendered.
+				System.err.println(animation.getName() + ": Frame " + frame + ": " + e);
+				e.printStackTrace();
+				failed = true;
+				return;
+			}
+			
+			rays.addAndGet(renderer.getRays());
+			distanceEstimates.addAndGet(renderer.getDistanceEstimates());
+			rendered.incrementAndGet();
+			
+			System.out.println(String.format("Frame %d/%d: %.2f s, %s rays/s, %s DE/s -> %s",
+				frame, animation.getFrames() - 1, frameTime / 1e9,
+				BatchRenderer.rate(renderer.getRays(), frameTime / 1e9),
+				BatchRenderer.rate(renderer.getDistanceEstimates(), frameTime / 1e9), output));
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.awt.image.BufferedImage;
+
+//Measures what progressive and adaptive antialiasing cost and save compared with rendering every
+//pixel's full antialiasing grid at once. Each fractal is rendered at its default view with full,
+//progressive, adaptive and progressive adaptive antialiasing, and each render's time, rays,
+//distance estimates and peak signal-to-noise ratio (PSNR) against the full render are printed.
+//The time of each render is the fastest of several rounds, after a round that warms up the JIT
+//compiler. Progressive renders must match the full or adaptive render they refine exactly, so
+//exits with status 1 if any of their pixels differ.
+public class AntialiasingBenchmark
+{
+	private static final int rounds = 3;
+	
+	//Runs the benchmark at the given width, height and antialiasing factor (default 320, 240 and
+	//2).
+	public static void main(String[] args)
+	{
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 320;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 240;
+		int antialiasingFactor = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		boolean failed = false;
+		
+		for(Fractal fractal : Main.createFractals())
+		{
+			FractalRenderer renderer = new FractalRenderer(width, height, fractal);
+			int[] full = benchmark(renderer, fractal, antialiasingFactor, false, false, null);
+			int[] adaptive = benchmark(renderer, fractal, antialiasingFactor, false, true, full);
+			
+			failed |= !matches(benchmark(renderer, fractal, antialiasingFactor, true, false, full),
+				full);
+			failed |= !matches(benchmark(renderer, fractal, antialiasingFactor, true, true, full),
+				adaptive);
+			
+			renderer.shutdown();
+		}
+		
+		if(failed)
+		{
+			System.exit(1);
+		}
+	}
+	
+	//Renders the given fractal with the given antialiasing, prints the render's costs and its PSNR
+	//against the given full render (if any), and returns the rendered pixels.
+	private static int[] benchmark(FractalRenderer renderer, Fractal fractal,
+		int antialiasingFactor, boolean progressive, boolean adaptive, int[] full)
+	{
+		RenderSettings settings = new RenderSettings();
+		BufferedImage image = null;
+		long time = Long.MAX_VALUE, start;
+		int[] pixels;
+		String description;
+		
+		settings.setAntialiasingFactor(antialiasingFactor);
+		settings.setProgressive(progressive);
+		settings.setAdaptive(adaptive);
+		renderer.setSettings(settings);
+		
+		for(int round = 0; round <= rounds; round++)
+		{
+			start = System.nanoTime();
+			image = renderer.render();
+			time = round == 0 ? time : Math.min(time, System.nanoTime() - start);
+		}
+		
+		pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+		description = String.format("%s, %s%s antialiasing: %.0f ms, %d rays, %d distance " +
+			"estimates", fractal, progressive ? "progressive " : "",
+			adaptive ? "adaptive" : "full", time / 1e6, renderer.getRays(),
+			renderer.getDistanceEstimates());
+		
+		if(adaptive)
+		{
+			description += String.format(", %d edge pixels", renderer.getEdgePixels());
+		}
+		
+		if(full != null)
+		{
+			description += String.format(", PSNR %.1f dB", psnr(pixels, full));
+		}
+		
+		System.out.println(description);
+		return pixels;
+	}
+	
+	//Returns whether the given pixels are the same as the given expected pixels, and prints how
+	//many differ if they aren't.
+	private static boolean matches(int[] pixels, int[] expected)
+	{
+		int differences = 0;
+		
+		for(int i = 0; i < pixels.length; i++)
+		{
+			differences += pixels[i] == expected[i] ? 0 : 1;
+		}
+		
+		if(differences > 0)
+		{
+			System.out.println(differences + " pixels differ from the non-progressive render.");
+		}
+		
+		return differences == 0;
+	}
+	
+	//Returns the PSNR of the given pixels against the given reference pixels, in decibels. It's
+	//infinite if they're the same.
+	private static double psnr(int[] pixels, int[] reference)
+	{
+		double error = 0.0, difference;
+		
+		for(int i = 0; i < pixels.length; i++)
+		{
+			for(int shift = 0; shift <= 16; shift += 8)
+			{
+				difference = ((pixels[i] >> shift) & 0xFF) - ((reference[i] >> shift) & 0xFF);
+				error += difference * difference;
+			}
+		}
+		
+		return 10.0 * Math.log10(255.0 * 255.0 * 3.0 * pixels.length / error);
+	}
+}
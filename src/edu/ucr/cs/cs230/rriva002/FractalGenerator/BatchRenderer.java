@@ -0,0 +1,148 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+//Renders scene files to images without a display, printing how fast each scene was rendered.
+//Scenes are rendered one after another in the same JVM, so only the first pays for warming up
+//the JIT compiler, and scenes with the same dimensions share a renderer and its thread pool. A
+//scene that can't be read or rendered is reported and skipped.
+public class BatchRenderer
+{
+	private FractalRenderer renderer;
+	private long rays = 0, distanceEstimates = 0, renderTime = 0;
+	private int rendered = 0, failed = 0;
+	
+	//Renders each of the given scene files. Exits with status 1 if any of them failed.
+	public static void main(String[] args)
+	{
+		BatchRenderer batchRenderer = new BatchRenderer();
+		
+		//Never open a display, even if one is available.
+		System.setProperty("java.awt.headless", "true");
+		
+		if(args.length == 0)
+		{
+			System.err.println("Usage: BatchRenderer scene.properties...");
+			System.exit(2);
+		}
+		
+		for(String arg : args)
+		{
+			batchRenderer.render(new File(arg));
+		}
+		
+		batchRenderer.shutdown();
+		System.out.println(batchRenderer.getReport());
+		
+		if(batchRenderer.failed > 0)
+		{
+			System.exit(1);
+		}
+	}
+	
+	//Returns a summary of the scenes rendered so far and their combined throughput.
+	public String getReport()
+	{
+		double seconds = renderTime / 1e9;
+		
+		return String.format("%d scenes rendered, %d failed: %.2f s rendering, %s rays/s, %s DE/s",
+			rendered, failed, seconds, rate(rays, seconds), rate(distanceEstimates, seconds));
+	}
+	
+	//Returns the given count per second in a short form.
+	static String rate(long count, double seconds)
+	{
+		double rate = seconds > 0.0 ? count / seconds : 0.0;
+		
+		if(rate >= 1e6)
+		{
+			return String.format("%.2fM", rate / 1e6);
+		}
+		
+		return rate >= 1e3 ? String.format("%.1fk", rate / 1e3) : String.format("%.0f", rate);
+	}
+	
+	//Renders the scene in the given file and writes its image, printing how long it took and how
+	//many rays and distance estimates per second were performed. Errors are printed instead.
+	public void render(File file)
+	{
+		Scene scene;
+		Fractal fractal;
+		BufferedImage image;
+		String format, fileName;
+		long start, time;
+		
+		try
+		{
+			scene = new Scene(file);
+			fractal = scene.createFractal();
+			fileName = scene.getOutput().getName();
+			format = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
+			
+			//The output file must have a format that can be written.
+			if(!ImageIO.getImageWritersBySuffix(format).hasNext())
+			{
+				throw new IllegalArgumentException("No image writer for " + fileName);
+			}
+			
+			//Keep the renderer if the image has the same dimensions as the last one.
+			if(renderer == null || renderer.getImage().getWidth() != scene.getWidth() ||
+				renderer.getImage().getHeight() != scene.getHeight())
+			{
+				shutdown();
+				
+				renderer = new FractalRenderer(scene.getWidth(), scene.getHeight(), fractal);
+			}
+			else
+			{
+				renderer.setFractal(fractal);
+			}
+			
+			renderer.setSettings(scene.getSettings());
+			scene.apply(renderer);
+			
+			start = System.nanoTime();
+			image = renderer.render();
+			time = System.nanoTime() - start;
+			
+			ImageIO.write(image, format, scene.getOutput());
+		}
+		catch(IOException e)
+		{
+			System.err.println(file + ": " + e.getMessage());
+			failed++;
+			return;
+		}
+		catch(IllegalArgumentException e)
+		{
+			System.err.println(file + ": " + e.getMessage());
+			failed++;
+			return;
+		}
+		
+		rays += renderer.getRays();
+		distanceEstimates += renderer.getDistanceEstimates();
+		renderTime += time;
+		rendered++;
+		
+		System.out.println(String.format("%s: %dx%d %s AA %d in %.2f s, %d rays (%s rays/s), " +
+			"%d DEs (%s DE/s) -> %s", scene.getName(), scene.getWidth(), scene.getHeight(),
+			fractal, renderer.getSettings().getAntialiasingFactor(), time / 1e9,
+			renderer.getRays(), rate(renderer.getRays(), time / 1e9),
+			renderer.getDistanceEstimates(), rate(renderer.getDistanceEstimates(), time / 1e9),
+			scene.getOutput()));
+	}
+	
+	//Shuts down the renderer's thread pool.
+	public void shutdown()
+	{
+		if(renderer != null)
+		{
+			renderer.shutdown();
+		}
+	}
+}
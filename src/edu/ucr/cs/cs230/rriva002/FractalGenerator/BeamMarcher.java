@@ -0,0 +1,128 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+public class BeamMarcher implements Runnable
+{
+	private Camera camera;
+	private Fractal fractal;
+	private double[][] distances;
+	private double maxDistance;
+	private long distanceEstimates = 0, time = 0;
+	private int blockSize, id, threads;
+	
+	//Constructor. Stores values for marching one cone through each block of pixels. The safe
+	//distance for each block is stored in the given array, indexed by block row and column.
+	public BeamMarcher(Camera camera, Fractal fractal, double[][] distances, int blockSize, int id,
+		int threads)
+	{
+		this.camera = camera;
+		this.fractal = fractal;
+		this.distances = distances;
+		this.maxDistance = camera.getPosition().magnitude() + fractal.getMaxDistance();
+		this.blockSize = blockSize;
+		this.id = id;
+		this.threads = threads;
+	}
+	
+	//Returns the number of distance estimates performed by this beam marcher.
+	public long getDistanceEstimates()
+	{
+		return distanceEstimates;
+	}
+	
+	//Returns the time in nanoseconds taken by this beam marcher.
+	public long getTime()
+	{
+		return time;
+	}
+	
+	//Marches a cone enclosing every ray through the specified block of pixels and returns the
+	//distance along the cone's axis that none of those rays can hit the fractal before.
+	private double marchBeam(int blockX, int blockY)
+	{
+		int minX = blockX * blockSize, minY = blockY * blockSize;
+		int maxX = Math.min(minX + blockSize, camera.getWidth());
+		int maxY = Math.min(minY + blockSize, camera.getHeight());
+		double centerX = 0.5 * (double) (minX + maxX) - 0.5;
+		double centerY = 0.5 * (double) (minY + maxY) - 0.5;
+		double cosine = 1.0, tangent, distance, radius, totalDistance = 0.0;
+		Vector3 position = camera.getPosition(), corner;
+		Vector3 axis = Vector3.subtract(camera.pixelPosition(centerX, centerY), position);
+		
+		axis = Vector3.normalize(axis);
+		
+		//Find the widest angle between the cone's axis and a ray through one of the block's
+		//corners. Pixel positions are at pixel centers, so the corners are half a pixel out.
+		for(double x : new double[]{(double) minX - 0.5, (double) maxX - 0.5})
+		{
+			for(double y : new double[]{(double) minY - 0.5, (double) maxY - 0.5})
+			{
+				corner = Vector3.subtract(camera.pixelPosition(x, y), position);
+				cosine = Math.min(cosine, Vector3.dot(axis, Vector3.normalize(corner)));
+			}
+		}
+		
+		tangent = Math.sqrt(1.0 - cosine * cosine) / cosine;
+		
+		//None of the block's rays can hit the fractal if the cone misses its bounding sphere.
+		if(missesBounds(position, axis, Math.acos(cosine)))
+		{
+			return maxDistance;
+		}
+		
+		//March along the axis until the estimated distance is too small compared to the cone's
+		//radius to make further progress.
+		while(totalDistance < maxDistance)
+		{
+			distance = fractal.estimateDistance(position.getX() + axis.getX() * totalDistance,
+				position.getY() + axis.getY() * totalDistance,
+				position.getZ() + axis.getZ() * totalDistance);
+			radius = totalDistance * tangent;
+			distanceEstimates++;
+			
+			if(distance < 2.0 * radius + fractal.getMinDistance())
+			{
+				break;
+			}
+			
+			//Step only as far as keeps the whole cross section of the cone within the unbounding
+			//sphere.
+			totalDistance += (distance - radius) / (1.0 + tangent);
+		}
+		
+		return Math.min(totalDistance, maxDistance);
+	}
+	
+	//Returns whether a cone with the given apex, axis and half angle misses the fractal's bounding
+	//sphere.
+	private boolean missesBounds(Vector3 apex, Vector3 axis, double angle)
+	{
+		double radius = fractal.getBoundingRadius() + fractal.getMinDistance();
+		double distance = apex.magnitude(), angleToCenter, angularRadius;
+		
+		//The cone can't miss the sphere if its apex is inside it.
+		if(distance <= radius)
+		{
+			return false;
+		}
+		
+		angleToCenter = Math.acos(-Vector3.dot(axis, apex) / distance);
+		angularRadius = Math.asin(radius / distance);
+		return angleToCenter > angle + angularRadius;
+	}
+	
+	//March each block of pixels assigned to the beam marcher.
+	public void run()
+	{
+		long start = System.nanoTime();
+		
+		for(int i = id; i < distances.length; i += threads)
+		{
+			for(int j = 0; j < distances[i].length; j++)
+			{
+				distances[i][j] = marchBeam(j, i);
+			}
+		}
+		
+		time = System.nanoTime() - start;
+	}
+}
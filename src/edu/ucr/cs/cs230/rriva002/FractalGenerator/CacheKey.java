@@ -0,0 +1,41 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//The fractal, its parameters and the lights that a cache of rendered results was filled for, so
+//the cache can tell when it has to be emptied. Lights can't be changed once created, so they're
+//compared by identity.
+public class CacheKey
+{
+	private List<Light> lights = new ArrayList<Light>();
+	private Light ambientLight;
+	private Fractal fractal;
+	private String description;
+	
+	//Returns the fractal that was last stored, or null if nothing has been stored yet.
+	public Fractal getFractal()
+	{
+		return fractal;
+	}
+	
+	//Stores the given fractal, its parameters and the given lights, and returns whether any of
+	//them differ from the ones stored before. The ambient light may be null if the cache doesn't
+	//depend on it.
+	public boolean update(Fractal fractal, List<Light> lights, Light ambientLight)
+	{
+		String description = fractal.getDescription();
+		
+		if(fractal == this.fractal && description.equals(this.description) &&
+			lights.equals(this.lights) && ambientLight == this.ambientLight)
+		{
+			return false;
+		}
+		
+		this.fractal = fractal;
+		this.description = description;
+		this.lights = new ArrayList<Light>(lights);
+		this.ambientLight = ambientLight;
+		return true;
+	}
+}
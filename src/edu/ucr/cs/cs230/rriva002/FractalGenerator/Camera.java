@@ -1,10 +1,12 @@
 package edu.ucr.cs.cs230.rriva002.FractalGenerator;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 public class Camera
 {
 	private BufferedImage image;
+	private int[] pixels;
 	private Vector3 position, direction, up, horizontal, vertical, imageCenter;
 	public static final double fieldOfView = Math.toRadians(70.0);
 	private static final double imageDistance = 1.0; 
@@ -15,6 +17,7 @@ public class Camera
 	public Camera(Vector3 position, Vector3 direction, Vector3 up, int width, int height)
 	{
 		this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 		this.width = width;
 		this.height = height;
 		
@@ -39,11 +42,23 @@ public class Camera
 		maxY = 0.5 * imageHeight;
 	}
 	
-	//Sets the specified pixel in the image with the given color.
+	//Sets the specified pixel in the image with the given color. The color is written directly to
+	//the image's pixel array, bypassing the color model.
 	public void colorPixel(int x, int y, int color)
 	{
 		//The y coordinate is reversed since y = 0 is at the top of the image.
-		image.setRGB(x, height - y - 1, color);
+		pixels[(height - y - 1) * this.width + x] = color;
+	}
+	
+	//Sets the pixels in the rectangle with the given corner and dimensions in the image with the
+	//given colors, which are indexed by row, then column.
+	public void colorPixels(int x, int y, int width, int height, int[] colors)
+	{
+		for(int i = 0; i < height; i++)
+		{
+			System.arraycopy(colors, i * width, pixels, (this.height - y - i - 1) * this.width + x,
+				width);
+		}
 	}
 	
 	//Returns the normalized direction of the camera.
@@ -64,6 +79,24 @@ public class Camera
 		return image;
 	}
 	
+	//Copies the colors of the pixels in the rectangle with the given corner and dimensions in the
+	//image to the given array, indexed by row, then column.
+	public void getPixels(int x, int y, int width, int height, int[] colors)
+	{
+		for(int i = 0; i < height; i++)
+		{
+			System.arraycopy(pixels, (this.height - y - i - 1) * this.width + x, colors, i * width,
+				width);
+		}
+	}
+	
+	//Returns the width of a pixel projected onto a plane at a distance of 1 from the camera.
+	//Multiplying by a distance gives the pixel's footprint at that distance.
+	public double getPixelFootprint()
+	{
+		return imageWidth / imageDistance / (double) width;
+	}
+	
 	//Returns the camera's position in three-dimensional space.
 	public Vector3 getPosition()
 	{
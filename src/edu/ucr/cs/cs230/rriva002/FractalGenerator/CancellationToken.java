@@ -0,0 +1,20 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+//Signals a render's workers that it has been cancelled. The token can be cancelled from any
+//thread, and workers check it between rows.
+public class CancellationToken
+{
+	private volatile boolean cancelled = false;
+	
+	//Cancels the render.
+	public void cancel()
+	{
+		cancelled = true;
+	}
+	
+	//Returns whether the render has been cancelled.
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+}
@@ -0,0 +1,119 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class CostMap
+{
+	public static enum Metric{STEPS, DISTANCE_ESTIMATES, SHADOW_STEPS, TIME};
+	private long[][] values;
+	private int width, height;
+	
+	//Constructor. Creates an empty cost map for an image with the given dimensions.
+	public CostMap(int width, int height)
+	{
+		this.values = new long[Metric.values().length][width * height];
+		this.width = width;
+		this.height = height;
+	}
+	
+	//Returns the color for the given value in the range [0, 1] on a black, blue, cyan, green,
+	//yellow, red and white scale.
+	private static int heatColor(double value)
+	{
+		double[][] scale = new double[][]{{0.0, 0.0, 0.0}, {0.0, 0.0, 1.0}, {0.0, 1.0, 1.0},
+			{0.0, 1.0, 0.0}, {1.0, 1.0, 0.0}, {1.0, 0.0, 0.0}, {1.0, 1.0, 1.0}};
+		double position = Math.max(0.0, Math.min(value, 1.0)) * (double) (scale.length - 1);
+		int index = Math.min((int) position, scale.length - 2), color = 0;
+		double fraction = position - (double) index, component;
+		
+		//Interpolate between the two nearest colors on the scale.
+		for(int i = 0; i < 3; i++)
+		{
+			component = scale[index][i] + fraction * (scale[index + 1][i] - scale[index][i]);
+			color += (int) Math.round((double) 0xFF * component) << 16 - 8 * i;
+		}
+		
+		return color;
+	}
+	
+	//Returns the height of the cost map in pixels.
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	//Returns the raw values recorded for the given metric. Values are stored row by row starting
+	//with the top row of the image. Times are in nanoseconds.
+	public long[] getValues(Metric metric)
+	{
+		return values[metric.ordinal()];
+	}
+	
+	//Returns the width of the cost map in pixels.
+	public int getWidth()
+	{
+		return width;
+	}
+	
+	//Adds the given costs to those recorded for the specified pixel, so that the costs of
+	//progressive passes are totaled. Steps are those of the pixel's primary rays; distance
+	//estimates include the shadow rays and gradients but not the beam pre-pass.
+	public void record(int x, int y, long steps, long distanceEstimates, long shadowSteps,
+		long time)
+	{
+		//The y coordinate is reversed since y = 0 is at the top of the image.
+		int index = (height - y - 1) * width + x;
+		
+		values[Metric.STEPS.ordinal()][index] += steps;
+		values[Metric.DISTANCE_ESTIMATES.ordinal()][index] += distanceEstimates;
+		values[Metric.SHADOW_STEPS.ordinal()][index] += shadowSteps;
+		values[Metric.TIME.ordinal()][index] += time;
+	}
+	
+	//Returns a false color image of the given metric. Values are scaled logarithmically so that
+	//the most expensive pixel is white.
+	public BufferedImage toImage(Metric metric)
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		long[] metricValues = getValues(metric);
+		long max = 0;
+		
+		for(long value : metricValues)
+		{
+			max = Math.max(max, value);
+		}
+		
+		//Color each pixel according to its value relative to the maximum value.
+		for(int i = 0; i < metricValues.length; i++)
+		{
+			double value = max == 0 ? 0.0 : Math.log1p(metricValues[i]) / Math.log1p(max);
+			
+			image.setRGB(i % width, i / width, heatColor(value));
+		}
+		
+		return image;
+	}
+	
+	//Writes the cost map to the given stream as raw big-endian data: the width and height as
+	//integers, followed by each metric's values as longs in the order the metrics are declared.
+	public void write(OutputStream outputStream) throws IOException
+	{
+		DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+		
+		dataOutputStream.writeInt(width);
+		dataOutputStream.writeInt(height);
+		
+		for(long[] metricValues : values)
+		{
+			for(long value : metricValues)
+			{
+				dataOutputStream.writeLong(value);
+			}
+		}
+		
+		dataOutputStream.flush();
+	}
+}
@@ -0,0 +1,105 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.util.Random;
+
+//Measures how fast each fractal's distances are estimated one position at a time (the SCALAR
+//engine) and with its batch estimator (the AUTO_VECTORIZED engine), in batches of the sizes that
+//ray packets use. The positions are random points in the fractal's bounding sphere, and every
+//batch's results are checked against the single-position estimates. Each measurement is the
+//fastest of several rounds, after rounds that warm up the JIT compiler. Exits with status 1 if
+//any result differs.
+public class DistanceBenchmark
+{
+	private static final int[] batchSizes = {8, 16, 32, 64};
+	private static final int warmUpRounds = 5, rounds = 5;
+	
+	//Runs the benchmark on the given number of positions (default 65536).
+	public static void main(String[] args)
+	{
+		int positions = args.length > 0 ? Integer.parseInt(args[0]) : 65536;
+		long mismatches = 0;
+		
+		for(Fractal fractal : Main.createFractals())
+		{
+			for(int batchSize : batchSizes)
+			{
+				mismatches += benchmark(fractal, positions, batchSize);
+			}
+		}
+		
+		if(mismatches > 0)
+		{
+			System.exit(1);
+		}
+	}
+	
+	//Estimates the distances to the given number of random positions with both engines in
+	//batches of the given size, prints the time per position of each and returns the number of
+	//batch results that differ from the single-position ones.
+	private static long benchmark(Fractal fractal, int positions, int batchSize)
+	{
+		Random random = new Random(1);
+		double[] xs = new double[positions], ys = new double[positions], zs = new double[positions];
+		double[] scalar = new double[positions], batch = new double[positions];
+		double[] x = new double[batchSize], y = new double[batchSize], z = new double[batchSize];
+		double[] out = new double[batchSize];
+		double[][] scratch = new double[Fractal.batchScratchArrays][batchSize];
+		double radius = fractal.getBoundingRadius();
+		long scalarTime = Long.MAX_VALUE, batchTime = Long.MAX_VALUE, start, mismatches = 0;
+		int n;
+		
+		//Pick positions uniformly in the bounding sphere.
+		for(int i = 0; i < positions; i++)
+		{
+			do
+			{
+				xs[i] = (random.nextDouble() * 2.0 - 1.0) * radius;
+				ys[i] = (random.nextDouble() * 2.0 - 1.0) * radius;
+				zs[i] = (random.nextDouble() * 2.0 - 1.0) * radius;
+			}
+			while(xs[i] * xs[i] + ys[i] * ys[i] + zs[i] * zs[i] > radius * radius);
+		}
+		
+		for(int round = 0; round < warmUpRounds + rounds; round++)
+		{
+			start = System.nanoTime();
+			
+			for(int i = 0; i < positions; i++)
+			{
+				scalar[i] = fractal.estimateDistance(xs[i], ys[i], zs[i]);
+			}
+			
+			scalarTime = round < warmUpRounds ? scalarTime :
+				Math.min(scalarTime, System.nanoTime() - start);
+			start = System.nanoTime();
+			
+			//Copy each batch in, as ray packets do.
+			for(int i = 0; i < positions; i += batchSize)
+			{
+				n = Math.min(batchSize, positions - i);
+				
+				System.arraycopy(xs, i, x, 0, n);
+				System.arraycopy(ys, i, y, 0, n);
+				System.arraycopy(zs, i, z, 0, n);
+				fractal.estimateDistance(x, y, z, out, scratch, n);
+				System.arraycopy(out, 0, batch, i, n);
+			}
+			
+			batchTime = round < warmUpRounds ? batchTime :
+				Math.min(batchTime, System.nanoTime() - start);
+		}
+		
+		for(int i = 0; i < positions; i++)
+		{
+			if(Double.doubleToLongBits(scalar[i]) != Double.doubleToLongBits(batch[i]))
+			{
+				mismatches++;
+			}
+		}
+		
+		System.out.println(String.format("%s, batches of %d: scalar %.1f ns, batch %.1f ns per " +
+			"position (%.2fx), %d mismatches", fractal, batchSize, (double) scalarTime / positions,
+			(double) batchTime / positions, (double) scalarTime / batchTime, mismatches));
+		return mismatches;
+	}
+}
@@ -0,0 +1,113 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+//A grid of lower bounds on the distance to a fractal over its bounding cube, so that rays far from
+//the fractal can step without estimating distances. Each cell stores the distance estimated at
+//its center, and since the distance to the fractal can't change faster than the position, a point
+//is at least that far from the fractal minus its distance from the center. The grid is filled
+//once for each set of parameters (split between threads by layer), and is safe to read from
+//several threads after that.
+public class DistanceGrid
+{
+	private final Fractal fractal;
+	private final String description;
+	private final int resolution;
+	private final double min, cellSize, inverseCellSize;
+	private final float[] distances;
+	
+	//Constructor. Creates an unfilled grid with the given number of cells along each side for the
+	//fractal's current parameters.
+	public DistanceGrid(Fractal fractal, int resolution)
+	{
+		double radius = fractal.getBoundingHalfWidth() + fractal.getMinDistance();
+		
+		this.fractal = fractal;
+		this.description = fractal.getDescription();
+		this.resolution = resolution;
+		this.min = -radius;
+		this.cellSize = 2.0 * radius / (double) resolution;
+		this.inverseCellSize = 1.0 / cellSize;
+		this.distances = new float[resolution * resolution * resolution];
+	}
+	
+	//Estimates the distance at the center of each cell in every step-th layer of cells along the z
+	//axis, starting with the given layer. The distances are rounded down to floats so that they
+	//stay lower bounds.
+	public void fill(int first, int step)
+	{
+		double x, y, z, distance;
+		float rounded;
+		
+		for(int k = first; k < resolution; k += step)
+		{
+			z = min + ((double) k + 0.5) * cellSize;
+			
+			for(int j = 0; j < resolution; j++)
+			{
+				y = min + ((double) j + 0.5) * cellSize;
+				
+				for(int i = 0; i < resolution; i++)
+				{
+					x = min + ((double) i + 0.5) * cellSize;
+					distance = fractal.estimateDistance(x, y, z);
+					rounded = (float) distance;
+					
+					if(rounded > distance)
+					{
+						rounded = Math.nextAfter(rounded, Double.NEGATIVE_INFINITY);
+					}
+					
+					distances[(k * resolution + j) * resolution + i] = rounded;
+				}
+			}
+		}
+	}
+	
+	//Returns the width of a cell.
+	public double getCellSize()
+	{
+		return cellSize;
+	}
+	
+	//Returns the number of bytes taken by the grid's distances.
+	public long getMemory()
+	{
+		return 4L * distances.length;
+	}
+	
+	//Returns the number of cells along each side of the grid.
+	public int getResolution()
+	{
+		return resolution;
+	}
+	
+	//Returns a lower bound on the distance from the position with the given coordinates to the
+	//fractal. The bound is 0 outside the grid, and may be negative close to the fractal.
+	public double lowerBound(double x, double y, double z)
+	{
+		double u = (x - min) * inverseCellSize, v = (y - min) * inverseCellSize;
+		double w = (z - min) * inverseCellSize;
+		int i, j, k;
+		
+		if(u < 0.0 || v < 0.0 || w < 0.0 || u >= resolution || v >= resolution || w >= resolution)
+		{
+			return 0.0;
+		}
+		
+		i = (int) u;
+		j = (int) v;
+		k = (int) w;
+		u = (u - (double) i - 0.5) * cellSize;
+		v = (v - (double) j - 0.5) * cellSize;
+		w = (w - (double) k - 0.5) * cellSize;
+		
+		return distances[(k * resolution + j) * resolution + i] - Math.sqrt(u * u + v * v + w * w);
+	}
+	
+	//Returns whether the grid was made for the given fractal with its current parameters and the
+	//given resolution.
+	public boolean matches(Fractal fractal, int resolution)
+	{
+		return fractal == this.fractal && resolution == this.resolution &&
+			fractal.getDescription().equals(description);
+	}
+}
@@ -5,8 +5,10 @@ import java.util.List;
 public abstract class Fractal
 {
 	private int iterations;
-	protected double minDistance, maxDistance;
+	private MathProvider mathProvider = MathProvider.EXACT;
+	protected double minDistance, maxDistance, boundingRadius;
 	protected static final String iterationsString = "Iterations";
+	public static final int batchScratchArrays = 4;
 	protected Vector3 defaultCameraPosition;
 	
 	//Constructor. Accepts values common to all fractal objects.
@@ -18,8 +20,66 @@ public abstract class Fractal
 		setIterations(iterations);
 	}
 	
+	//Returns the distances along the given ray at which it enters and leaves the fractal's
+	//bounding volume, or null if the ray misses it. The direction must be normalized. The default
+	//bounding volume is a sphere around the origin with the bounding radius.
+	public double[] clip(Vector3 endpoint, Vector3 direction)
+	{
+		double radius = boundingRadius + minDistance, b = Vector3.dot(endpoint, direction);
+		double discriminant = b * b - Vector3.dot(endpoint, endpoint) + radius * radius, root;
+		
+		//The ray's line misses the sphere.
+		if(discriminant < 0.0)
+		{
+			return null;
+		}
+		
+		root = Math.sqrt(discriminant);
+		
+		//The sphere is behind the ray.
+		if(root - b < 0.0)
+		{
+			return null;
+		}
+		
+		return new double[]{Math.max(0.0, -b - root), root - b};
+	}
+	
 	//Returns the estimated distance from the given position to the fractal's surface.
-	public abstract double estimateDistance(Vector3 z);
+	public double estimateDistance(Vector3 z)
+	{
+		return estimateDistance(z.getX(), z.getY(), z.getZ());
+	}
+	
+	//Returns the estimated distance from the position with the given coordinates to the
+	//fractal's surface. Implementations shouldn't allocate any objects.
+	public abstract double estimateDistance(double x, double y, double z);
+	
+	//Estimates the distances from the first n positions in the given coordinate arrays to the
+	//fractal's surface and stores them in the output array. The scratch arrays are
+	//batchScratchArrays arrays of at least n values that the estimator can overwrite, so that it
+	//doesn't need to allocate any.
+	public void estimateDistance(double[] xs, double[] ys, double[] zs, double[] out,
+		double[][] scratch, int n)
+	{
+		for(int i = 0; i < n; i++)
+		{
+			out[i] = estimateDistance(xs[i], ys[i], zs[i]);
+		}
+	}
+	
+	//Returns the radius of a sphere around the origin that the fractal is entirely inside.
+	public double getBoundingRadius()
+	{
+		return boundingRadius;
+	}
+	
+	//Returns half the width of a cube around the origin that the fractal is entirely inside. The
+	//default cube is the one around the bounding sphere.
+	public double getBoundingHalfWidth()
+	{
+		return boundingRadius;
+	}
 	
 	//Returns the default camera position for this fractal.
 	public Vector3 getDefaultCameraPosition()
@@ -30,6 +90,20 @@ public abstract class Fractal
 	//Returns ambient color values.
 	public abstract double[] getAmbientColor();
 	
+	//Returns a description of the fractal's tier of math functions and parameter values, which
+	//changes whenever any of them do.
+	public String getDescription()
+	{
+		String description = mathProvider.toString();
+		
+		for(String[] parameter : getParameters())
+		{
+			description += ", " + parameter[0] + " = " + parameter[1];
+		}
+		
+		return description;
+	}
+	
 	//Returns diffuse color values.
 	public abstract double[] getDiffuseColor();
 	
@@ -39,6 +113,12 @@ public abstract class Fractal
 		return iterations;
 	}
 	
+	//Returns the tier of math functions used by the distance estimator.
+	public MathProvider getMathProvider()
+	{
+		return mathProvider;
+	}
+	
 	//Returns the minimum step distance threshold for ray marching.
 	public double getMinDistance()
 	{
@@ -62,6 +142,12 @@ public abstract class Fractal
 		updateMinDistance();
 	}
 	
+	//Sets the tier of math functions used by the distance estimator.
+	public void setMathProvider(MathProvider mathProvider)
+	{
+		this.mathProvider = mathProvider;
+	}
+	
 	//Sets the specified parameter to the given value. Returns true if successful.
 	public abstract boolean setParameter(String parameter, double value);
 	
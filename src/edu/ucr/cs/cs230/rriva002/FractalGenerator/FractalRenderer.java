@@ -2,18 +2,46 @@ package edu.ucr.cs.cs230.rriva002.FractalGenerator;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class FractalRenderer
 {
-	private List<Light> lights = new ArrayList<Light>();
+	private List<Light> lights = Collections.emptyList();
 	private Light ambientLight = new Light(origin, 0.53, 0.81, 0.92, 1.0);
+	private RenderSettings settings = new RenderSettings();
 	private Camera camera;
+	private CostMap costMap;
+	private ShadowCache shadowCache;
+	private Reprojection reprojection;
+	private GBuffer gBuffer;
+	private DistanceGrid distanceGrid;
 	private Fractal fractal;
 	private Vector3 defaultAxisOfRotation;
+	private List<Worker> tiles = new ArrayList<Worker>();
+	private volatile CancellationToken token = new CancellationToken(), renderToken = token;
+	private final AtomicInteger renderedTiles = new AtomicInteger();
+	private volatile int totalTiles = 1;
+	private ForkJoinPool pool;
+	private int[] samples;
+	private double[] depths;
+	private boolean[] edges;
+	private boolean relight, sharedPool = false;
 	private static final Vector3 origin = new Vector3(0.0, 0.0, 0.0);
 	private static final double turnAngle = Math.toRadians(15.0), moveFactor = 0.75;
-	private static final double epsilon = Math.pow(10.0, -15.0);
+	private static final double epsilon = Math.pow(10.0, -15.0), depthThreshold = 0.05;
+	private static final int coarsestStep = 8;
+	private long distanceEstimates = 0, rays = 0, poolStart, busyTime, renderTime, gridTime;
+	private int renders, gridThreads;
 	private int width, height;
 	
 	//Constructor. Sets camera/light values for the given fractal.
@@ -25,36 +53,69 @@ public class FractalRenderer
 		setFractal(fractal);
 	}
 	
-	//Moves the camera in the given direction orthogonal to the camera's direction.
+	//Cancels the render in progress, if there is one. It returns the partly rendered image as soon
+	//as its workers finish the rows they're rendering. If a token from nextToken hasn't been passed
+	//to a render yet, its render is cancelled instead and returns as soon as it starts, so a
+	//cancellation isn't lost when it comes just before a render. This can be called from any
+	//thread.
+	public void cancel()
+	{
+		token.cancel();
+	}
+	
+	//Returns a new cancellation token for the next render, which cancel() cancels from now on. The
+	//render it was given before, if it's still in progress or hasn't started yet, is cancelled.
+	//Pass the token to render(CancellationToken) to start the render.
+	public CancellationToken nextToken()
+	{
+		CancellationToken next = new CancellationToken();
+		
+		token.cancel();
+		token = next;
+		return next;
+	}
+	
+	//Moves the camera in the given direction orthogonal to the camera's direction. Cancels the
+	//render in progress first.
 	public boolean cameraPan(Vector3 direction)
 	{
-		//Normalize the direction vector.
-		direction = Vector3.normalize(direction);
+		cancel();
 		
-		//The direction must be orthogonal to the camera's direction (or reasonably close to
-		//orthogonal).
-		if(Math.abs(Vector3.dot(camera.getDirection(), direction)) < epsilon)
+		synchronized(this)
 		{
-			//Determine the distance from the fractal.
-			double distanceFromFractal = fractal.estimateDistance(camera.getPosition());
-			
-			//Scale the direction vector by a constant factor.
-			direction = Vector3.scale(direction, distanceFromFractal * moveFactor);
+			//Normalize the direction vector.
+			direction = Vector3.normalize(direction);
 			
-			Vector3 position = Vector3.add(camera.getPosition(), direction);
+			//The direction must be orthogonal to the camera's direction (or reasonably close to
+			//orthogonal).
+			if(Math.abs(Vector3.dot(camera.getDirection(), direction)) < epsilon)
+			{
+				//Determine the distance from the fractal.
+				double distanceFromFractal = distanceFromFractal();
+				
+				//Scale the direction vector by a constant factor.
+				direction = Vector3.scale(direction, distanceFromFractal * moveFactor);
+				
+				Vector3 position = Vector3.add(camera.getPosition(), direction);
+				
+				//Move the camera.
+				camera.adjustCamera(position, camera.getDirection(), camera.getUp());
+				return true;
+			}
 			
-			//Move the camera.
-			camera.adjustCamera(position, camera.getDirection(), camera.getUp());
-			return true;
+			return false;
 		}
-		
-		return false;
 	}
 	
-	//Turn the camera by a constant angle.
+	//Turn the camera by a constant angle. Cancels the render in progress first.
 	public boolean cameraTurn(Vector3 direction)
 	{
-		return cameraTurn(direction, turnAngle);
+		cancel();
+		
+		synchronized(this)
+		{
+			return cameraTurn(direction, turnAngle);
+		}
 	}
 	
 	//Turn the camera by the given angle.
@@ -105,62 +166,160 @@ public class FractalRenderer
 		return false;
 	}
 	
-	//Moves the camera forward or backward.
+	//Moves the camera forward or backward. Cancels the render in progress first.
 	public boolean cameraZoom(Vector3 direction)
 	{
-		double dot = Vector3.dot(camera.getDirection(), Vector3.normalize(direction));
+		cancel();
 		
-		//The direction must be parallel to the camera's direction (or reasonably close to
-		//parallel).
-		if(1.0 - Math.abs(dot) < epsilon)
+		synchronized(this)
 		{
-			//Determine the distance from the fractal and move the camera in the specified
-			//direction, scaled by a constant factor.
-			double distance = fractal.estimateDistance(camera.getPosition());
-			double zoom = dot * distance * (dot > 0.0 ? moveFactor : 1.0 / (1.0 - moveFactor));
-			Vector3 zoomVector = Vector3.scale(camera.getDirection(), zoom);
-			Vector3 position = Vector3.add(camera.getPosition(), zoomVector);
+			double dot = Vector3.dot(camera.getDirection(), Vector3.normalize(direction));
 			
-			//Move the camera.
-			camera.adjustCamera(position, camera.getDirection(), camera.getUp());
-			return true;
+			//The direction must be parallel to the camera's direction (or reasonably close to
+			//parallel).
+			if(1.0 - Math.abs(dot) < epsilon)
+			{
+				//Determine the distance from the fractal and move the camera in the specified
+				//direction, scaled by a constant factor.
+				double distance = distanceFromFractal();
+				double zoom = dot * distance * (dot > 0.0 ? moveFactor : 1.0 / (1.0 - moveFactor));
+				Vector3 zoomVector = Vector3.scale(camera.getDirection(), zoom);
+				Vector3 position = Vector3.add(camera.getPosition(), zoomVector);
+				
+				//Move the camera.
+				camera.adjustCamera(position, camera.getDirection(), camera.getUp());
+				return true;
+			}
+			
+			return false;
 		}
-		
-		return false;
 	}
 	
 	//Turns the camera to face the specified pixel, then moves the camera in the specified
-	//direction.
+	//direction. Cancels the render in progress first.
 	public boolean cameraZoom(int x, int y, boolean forward)
 	{
-		Vector3 pos = camera.getPosition(), dir = camera.getDirection(), up = camera.getUp();
-		Vector3 pixelPosition = camera.pixelPosition((double) x, (double) height / 2.0);
-		Vector3 difference = Vector3.subtract(pixelPosition, camera.getPosition());
-		Vector3 toPixel = Vector3.normalize(difference), left = directionLeft();
-		Vector3 turnDir = Vector3.dot(left, toPixel) > 0.0 ? left : directionRight();
-		double angle = Math.acos(Vector3.dot(toPixel, camera.getDirection()));
-		boolean successful = false;
+		cancel();
+		
+		synchronized(this)
+		{
+			Vector3 pos = camera.getPosition(), dir = camera.getDirection(), up = camera.getUp();
+			Vector3 pixelPosition = camera.pixelPosition((double) x, (double) height / 2.0);
+			Vector3 difference = Vector3.subtract(pixelPosition, camera.getPosition());
+			Vector3 toPixel = Vector3.normalize(difference), left = directionLeft();
+			Vector3 turnDir = Vector3.dot(left, toPixel) > 0.0 ? left : directionRight();
+			double angle = Math.acos(Vector3.dot(toPixel, camera.getDirection()));
+			boolean successful = false;
+			
+			//Turn the camera left or right according to the pixel's x coordinate.
+			if(cameraTurn(turnDir, angle))
+			{
+				//If successful, turn the camera up or down according to the pixel's y coordinate,
+				//then zoom the camera.
+				pixelPosition = camera.pixelPosition((double) width / 2.0, (double) y);
+				toPixel = Vector3.normalize(Vector3.subtract(pixelPosition, camera.getPosition()));
+				turnDir = Vector3.dot(camera.getUp(), toPixel) > 0.0 ? directionUp() :
+					directionDown();
+				angle = Math.acos(Vector3.dot(toPixel, camera.getDirection()));
+				successful = cameraTurn(turnDir, angle);
+				successful = successful &&
+					cameraZoom(forward ? directionForward() : directionBack());
+			}
+			
+			//Restore the camera's original position and direction if something went wrong.
+			if(!successful)
+			{
+				camera.adjustCamera(pos, dir, up);
+			}
+			
+			return successful;
+		}
+	}
+	
+	//Returns the number of passes over the tiles that a render with the given settings takes.
+	private int countPasses(RenderSettings renderSettings)
+	{
+		boolean antialiased = renderSettings.getAntialiasingFactor() > 1;
+		int firstStep = renderSettings.isProgressive() ? coarsestStep : 1;
+		
+		//Non-progressive renders take one pass unless antialiasing is adaptive.
+		if(!renderSettings.isProgressive() && !(antialiased && renderSettings.isAdaptive()))
+		{
+			return 1;
+		}
+		
+		return Integer.numberOfTrailingZeros(firstStep) + (antialiased ? 2 : 1);
+	}
+	
+	//Returns a worker for each tile of the image in Morton order (the order of the tiles' indices
+	//with their column and row bits interleaved), so that tiles close together in the order are
+	//close together in the image.
+	private Worker[] createTiles(RenderSettings renderSettings, double[][] beamDistances)
+	{
+		List<Worker> workers = new ArrayList<Worker>();
+		ShadowCache cache = renderSettings.isShadowCacheEnabled() ? shadowCache : null;
+		int tileSize = renderSettings.getTileSize(), columns = (width + tileSize - 1) / tileSize;
+		int rows = (height + tileSize - 1) / tileSize, side = 1, column, row;
+		
+		//Find the smallest power of 2 that's at least the number of columns and rows.
+		while(side < Math.max(columns, rows))
+		{
+			side *= 2;
+		}
 		
-		//Turn the camera left or right according to the pixel's x coordinate.
-		if(cameraTurn(turnDir, angle))
+		for(int i = 0; i < side * side; i++)
 		{
-			//If successful, turn the camera up or down according to the pixel's y coordinate, then
-			//zoom the camera.
-			pixelPosition = camera.pixelPosition((double) width / 2.0, (double) y);
-			toPixel = Vector3.normalize(Vector3.subtract(pixelPosition, camera.getPosition()));
-			turnDir = Vector3.dot(camera.getUp(), toPixel) > 0.0 ? directionUp() : directionDown();
-			angle = Math.acos(Vector3.dot(toPixel, camera.getDirection()));
-			successful = cameraTurn(turnDir, angle);
-			successful = successful && cameraZoom(forward ? directionForward() : directionBack());
+			column = 0;
+			row = 0;
+			
+			//Separate the even and odd bits of the index into the column and row.
+			for(int bit = 0; 1 << 2 * bit < side * side; bit++)
+			{
+				column |= ((i >> 2 * bit) & 1) << bit;
+				row |= ((i >> 2 * bit + 1) & 1) << bit;
+			}
+			
+			if(column < columns && row < rows)
+			{
+				workers.add(new Worker(camera, fractal, ambientLight, lights, renderSettings,
+					beamDistances, costMap, cache, column * tileSize, row * tileSize,
+					Math.min(tileSize, width - column * tileSize),
+					Math.min(tileSize, height - row * tileSize)));
+			}
 		}
 		
-		//Restore the camera's original position and direction if something went wrong.
-		if(!successful)
+		return workers.toArray(new Worker[workers.size()]);
+	}
+	
+	//Builds a distance grid with the given number of cells along each side for the current
+	//fractal, splitting its layers between the given number of threads on the render pool.
+	private void buildDistanceGrid(int resolution, final int threads)
+	{
+		final DistanceGrid grid = new DistanceGrid(fractal, resolution);
+		Runnable[] builders = new Runnable[threads];
+		long start = System.nanoTime();
+		
+		//The grid being replaced isn't needed while the new one is built.
+		distanceGrid = null;
+		
+		for(int i = 0; i < threads; i++)
 		{
-			camera.adjustCamera(pos, dir, up);
+			final int first = i;
+			
+			builders[i] = new Runnable()
+			{
+				public void run()
+				{
+					grid.fill(first, threads);
+				}
+			};
 		}
 		
-		return successful;
+		run(builders);
+		
+		distanceGrid = grid;
+		gridTime = System.nanoTime() - start;
+		gridThreads = threads;
 	}
 	
 	//Returns a normalized vector pointing backward relative to the camera.
@@ -169,6 +328,13 @@ public class FractalRenderer
 		return Vector3.subtract(origin, camera.getDirection());
 	}
 	
+	//Returns the estimated distance from the camera to the fractal.
+	private double distanceFromFractal()
+	{
+		Vector3 position = camera.getPosition();
+		return fractal.estimateDistance(position.getX(), position.getY(), position.getZ());
+	}
+	
 	//Returns a normalized vector pointing down relative to the camera.
 	public Vector3 directionDown()
 	{
@@ -211,46 +377,518 @@ public class FractalRenderer
 		return ambientLight;
 	}
 	
-	//Returns a list of point lights.
+	//Returns the cost map recorded by the last render, or null if costs weren't recorded.
+	public CostMap getCostMap()
+	{
+		return costMap;
+	}
+	
+	//Returns a summary of the distance grid's size and how long it took to build.
+	public String getDistanceGridReport()
+	{
+		if(distanceGrid == null)
+		{
+			return "No distance grid";
+		}
+		
+		return String.format("%d^3 cells of %.4g (%.1f MB), built in %.2f s on %d threads",
+			distanceGrid.getResolution(), distanceGrid.getCellSize(),
+			distanceGrid.getMemory() / 1048576.0, gridTime / 1e9, gridThreads);
+	}
+	
+	//Returns the shadow cache, or null if shadow visibilities haven't been cached.
+	public ShadowCache getShadowCache()
+	{
+		return shadowCache;
+	}
+	
+	//Returns the number of pixels supersampled as edges by the last render, or -1 if its
+	//antialiasing wasn't adaptive.
+	public int getEdgePixels()
+	{
+		int edgePixels = 0;
+		
+		if(edges == null)
+		{
+			return -1;
+		}
+		
+		for(boolean edge : edges)
+		{
+			edgePixels += edge ? 1 : 0;
+		}
+		
+		return edgePixels;
+	}
+	
+	//Returns whether the last render was cancelled before it finished.
+	public boolean isCancelled()
+	{
+		return renderToken.isCancelled();
+	}
+	
+	//Returns the image being rendered, which is updated as each tile finishes.
+	public BufferedImage getImage()
+	{
+		return camera.getImage();
+	}
+	
+	//Returns the fraction of the tiles in the current or last render that have been rendered, from
+	//0 to 1. This can be called from any thread.
+	public double getProgress()
+	{
+		return Math.min(1.0, (double) renderedTiles.get() / (double) totalTiles);
+	}
+	
+	//Returns the number of distance estimates performed by the last render.
+	public long getDistanceEstimates()
+	{
+		return distanceEstimates;
+	}
+	
+	//Returns the number of rays marched by the last render, from the camera and toward the lights.
+	//Beams aren't counted.
+	public long getRays()
+	{
+		return rays;
+	}
+	
+	//Returns the render settings used by render().
+	public RenderSettings getSettings()
+	{
+		return settings;
+	}
+	
+	//Returns a summary of how the render pool's threads have spent their time since the pool was
+	//created: busy rendering, idle while a render was in progress (waiting for other threads to
+	//finish) and idle between renders.
+	public String getPoolReport()
+	{
+		if(pool == null)
+		{
+			return "No render pool";
+		}
+		
+		int threads = pool.getParallelism();
+		double lifetime = threads * (System.nanoTime() - poolStart) / 1e9, busy = busyTime / 1e9;
+		double rendering = threads * renderTime / 1e9;
+		
+		return String.format("%d threads, %d renders: %.2f s busy, %.2f s idle during renders " +
+			"(%.1f%% utilization), %.2f s idle between renders", threads, renders, busy,
+			rendering - busy, rendering > 0.0 ? 100.0 * busy / rendering : 0.0,
+			lifetime - rendering);
+	}
+	
+	//Returns a summary of the last render's tile times and how evenly the tiles were shared
+	//between threads. The imbalance is how much longer the busiest thread spent rendering tiles
+	//than the average thread, as a percentage of the average.
+	public String getTileReport()
+	{
+		Map<Thread, Long> threadTimes = new LinkedHashMap<Thread, Long>();
+		long minTime = Long.MAX_VALUE, maxTime = 0, totalTime = 0, maxThreadTime = 0;
+		double averageThreadTime;
+		
+		if(tiles.isEmpty())
+		{
+			return "No tiles rendered";
+		}
+		
+		//Total the time spent by each thread and find the shortest and longest tile times.
+		for(Worker tile : tiles)
+		{
+			Long threadTime = threadTimes.get(tile.getThread());
+			long time = tile.getTime();
+			
+			threadTimes.put(tile.getThread(), (threadTime == null ? 0 : threadTime) + time);
+			minTime = Math.min(minTime, time);
+			maxTime = Math.max(maxTime, time);
+			totalTime += time;
+		}
+		
+		for(long threadTime : threadTimes.values())
+		{
+			maxThreadTime = Math.max(maxThreadTime, threadTime);
+		}
+		
+		averageThreadTime = (double) totalTime / threadTimes.size();
+		
+		return String.format("%d tiles on %d threads: %.2f/%.2f/%.2f ms min/mean/max per tile, " +
+			"%.1f%% imbalance", tiles.size(), threadTimes.size(), minTime / 1e6,
+			totalTime / 1e6 / tiles.size(), maxTime / 1e6,
+			100.0 * (maxThreadTime - averageThreadTime) / averageThreadTime);
+	}
+	
+	//Returns the point lights. The list can't be changed; use setLights to replace it.
 	public List<Light> getLights()
 	{
 		return lights;
 	}
 	
-	//Renders a fractal image and returns it.
-	public BufferedImage render(int antialiasingFactor)
+	//Renders a fractal image with plain sphere tracing and returns it.
+	public synchronized BufferedImage render(int antialiasingFactor)
+	{
+		return render(antialiasingFactor, 1.0);
+	}
+	
+	//Renders a fractal image and returns it. Rays are marched with over-relaxed sphere tracing
+	//using the given relaxation factor, which should be in the range [1, 2).
+	public synchronized BufferedImage render(int antialiasingFactor, double relaxationFactor)
+	{
+		settings.setAntialiasingFactor(antialiasingFactor);
+		settings.setRelaxationFactor(relaxationFactor);
+		return render();
+	}
+	
+	//Renders a fractal image with the current render settings and returns it. Renders and camera
+	//moves on other threads wait for the render to finish, so cancel it first to start sooner.
+	public synchronized BufferedImage render()
+	{
+		return render(nextToken());
+	}
+	
+	//Renders a fractal image with the current render settings until the given token from
+	//nextToken is cancelled, and returns it. If it was cancelled before the render started, the
+	//image is returned as it is.
+	public synchronized BufferedImage render(CancellationToken cancellationToken)
+	{
+		int threads = settings.getThreads(), blockSize = settings.getBeamBlockSize(), tileSize;
+		RenderSettings renderSettings = new RenderSettings(settings);
+		boolean adaptive = settings.isAdaptive() && settings.getAntialiasingFactor() > 1;
+		BeamMarcher[] beamMarchers;
+		double[][] beamDistances = null;
+		long start;
+		int pixelSamples = settings.getAntialiasingFactor() * settings.getAntialiasingFactor();
+		
+		//Use every thread of a shared pool, or one thread per processor if the thread count isn't
+		//set.
+		if(sharedPool)
+		{
+			threads = pool.getParallelism();
+		}
+		else if(threads == 0)
+		{
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		
+		beamMarchers = new BeamMarcher[threads];
+		
+		updatePool(threads);
+		
+		renderToken = cancellationToken;
+		
+		//Don't start a render that was cancelled before it began.
+		if(renderToken.isCancelled())
+		{
+			return camera.getImage();
+		}
+		
+		start = System.nanoTime();
+		
+		//Keep a G-buffer if relighting is enabled, antialiasing isn't adaptive and it fits. Only
+		//shade its samples again if it holds a complete render of the same view of the fractal.
+		if(renderSettings.isRelightingEnabled() && !adaptive &&
+			(long) width * height * pixelSamples <= renderSettings.getGBufferSize())
+		{
+			if(gBuffer == null || gBuffer.getSamples() != pixelSamples)
+			{
+				gBuffer = new GBuffer(width, height, pixelSamples);
+			}
+		}
+		else
+		{
+			gBuffer = null;
+		}
+		
+		fractal.setMathProvider(renderSettings.getMathProvider());
+		
+		//Build the distance grid if it's enabled and the fractal, its parameters or the grid size
+		//have changed since it was last built.
+		if(renderSettings.isDistanceGridEnabled())
+		{
+			long cells = renderSettings.getDistanceGridSize();
+			int resolution = 1;
+			
+			//Find the most cells along each side whose cube fits in the grid size.
+			while((long) (resolution + 1) * (resolution + 1) * (resolution + 1) <= cells)
+			{
+				resolution++;
+			}
+			
+			if(distanceGrid == null || !distanceGrid.matches(fractal, resolution))
+			{
+				buildDistanceGrid(resolution, threads);
+			}
+		}
+		else
+		{
+			distanceGrid = null;
+		}
+		
+		relight = gBuffer != null && gBuffer.matches(camera, fractal, renderSettings);
+		tileSize = renderSettings.getTileSize();
+		totalTiles = (relight ? 1 : countPasses(renderSettings)) *
+			((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+		
+		renderedTiles.set(0);
+		distanceEstimates = 0;
+		rays = 0;
+		costMap = renderSettings.isCostMapEnabled() ? new CostMap(width, height) : null;
+		
+		//Keep the shadow cache from earlier renders unless the fractal or lights have changed.
+		if(renderSettings.isShadowCacheEnabled())
+		{
+			int cacheSize = renderSettings.getShadowCacheSize();
+			
+			if(shadowCache == null || shadowCache.getCapacity() != cacheSize)
+			{
+				shadowCache = new ShadowCache(cacheSize);
+			}
+			
+			shadowCache.validate(fractal, lights);
+			shadowCache.resetCounts();
+		}
+		
+		//Keep the last frame to reproject unless the fractal or lights have changed.
+		if(renderSettings.getReprojectionMode() != RenderSettings.ReprojectionMode.OFF)
+		{
+			if(reprojection == null)
+			{
+				reprojection = new Reprojection(width, height);
+			}
+			
+			reprojection.validate(fractal, lights, ambientLight);
+			reprojection.begin();
+		}
+		
+		//March one cone through each block of pixels first if beam marching is enabled and the
+		//rays from the camera are being marched.
+		if(blockSize > 1 && !relight)
+		{
+			beamDistances = new double[(height + blockSize - 1) / blockSize][];
+			
+			for(int i = 0; i < beamDistances.length; i++)
+			{
+				beamDistances[i] = new double[(width + blockSize - 1) / blockSize];
+			}
+			
+			for(int i = 0; i < threads; i++)
+			{
+				beamMarchers[i] = new BeamMarcher(camera, fractal, beamDistances, blockSize, i,
+					threads);
+			}
+			
+			run(beamMarchers);
+			
+			//Total the distance estimates performed and time taken by each beam marcher.
+			for(BeamMarcher beamMarcher : beamMarchers)
+			{
+				distanceEstimates += beamMarcher.getDistanceEstimates();
+				busyTime += beamMarcher.getTime();
+			}
+		}
+		
+		tiles.clear();
+		
+		samples = null;
+		depths = null;
+		edges = null;
+		
+		//The G-buffer is filled again unless its samples are only being shaded again.
+		if(gBuffer != null && !relight)
+		{
+			gBuffer.begin();
+		}
+		
+		//Render the image in passes from coarse to fine if rendering progressively or adaptively.
+		//Otherwise, the pixels' depths are only kept for the reprojection.
+		if((renderSettings.isProgressive() || adaptive) && !relight)
+		{
+			renderProgressive(renderSettings, beamDistances);
+		}
+		else
+		{
+			if(renderSettings.getReprojectionMode() != RenderSettings.ReprojectionMode.OFF)
+			{
+				depths = new double[width * height];
+			}
+			
+			renderPass(renderSettings, beamDistances, 0, 0);
+		}
+		
+		//Keep the finished frame for the next render to reproject.
+		if(renderSettings.getReprojectionMode() != RenderSettings.ReprojectionMode.OFF &&
+			!renderToken.isCancelled())
+		{
+			reprojection.store(camera, depths);
+		}
+		
+		//Keep the finished samples for the next render to shade again.
+		if(gBuffer != null && !relight && !renderToken.isCancelled())
+		{
+			gBuffer.store(camera, fractal, renderSettings);
+		}
+		
+		renderTime += System.nanoTime() - start;
+		renders++;
+		
+		return camera.getImage();
+	}
+	
+	//Renders one pass over every tile of the image on the render pool. The step is passed to the
+	//workers with the sample, depth and edge arrays, which are null if the render only has one
+	//pass (though the depths are kept for the reprojection). If relighting, the pass only shades
+	//the samples in the G-buffer again. Colors aren't reprojected while a G-buffer is kept, since
+	//it wouldn't have their samples.
+	private void renderPass(RenderSettings renderSettings, double[][] beamDistances, int step,
+		int firstStep)
+	{
+		Worker[] passTiles = createTiles(renderSettings, beamDistances);
+		RenderSettings.ReprojectionMode mode = renderSettings.getReprojectionMode();
+		
+		for(Worker tile : passTiles)
+		{
+			tile.setPass(samples, depths, edges, step, firstStep);
+			tile.setCancellationToken(renderToken);
+			tile.setReprojection(mode == RenderSettings.ReprojectionMode.OFF ? null : reprojection,
+				mode == RenderSettings.ReprojectionMode.COLORS && gBuffer == null);
+			tile.setGBuffer(gBuffer, relight);
+			tile.setDistanceGrid(distanceGrid);
+		}
+		
+		pool.invoke(new TileTask(passTiles, 0, passTiles.length, renderedTiles));
+		
+		//Total the distance estimates performed and time taken for each tile.
+		for(Worker tile : passTiles)
+		{
+			distanceEstimates += tile.getDistanceEstimates();
+			rays += tile.getRays();
+			busyTime += tile.getTime();
+			
+			tiles.add(tile);
+		}
+	}
+	
+	//Renders the image in passes that each render one sample for the pixels on a grid twice as
+	//fine as the last pass's, followed by a pass for the antialiasing samples. A non-progressive
+	//adaptive render has a single pass of samples for every pixel. If antialiasing is adaptive,
+	//only the pixels on edges are supersampled.
+	private void renderProgressive(RenderSettings renderSettings, double[][] beamDistances)
 	{
-		Thread[] threads = new Thread[Runtime.getRuntime().availableProcessors()];
-		Worker worker;
+		int firstStep = renderSettings.isProgressive() ? coarsestStep : 1;
+		boolean antialiased = renderSettings.getAntialiasingFactor() > 1;
+		
+		samples = new int[width * height];
+		depths = new double[width * height];
 		
-		//Create one worker thread for each processor and start it.
-		for(int i = 0; i < threads.length; i++)
+		for(int step = firstStep; step > 0; step /= 2)
 		{
-			worker = new Worker(camera, fractal, ambientLight, lights, antialiasingFactor, i,
-				threads.length);
-			threads[i] = new Thread(worker);
+			renderPass(renderSettings, beamDistances, step, firstStep);
 			
-			threads[i].start();
+			//Stop after the pass if the render was cancelled during it.
+			if(renderToken.isCancelled())
+			{
+				return;
+			}
 		}
 		
-		//Wait for all of the threads to finish.
-		for(int i = 0; i < threads.length; i++)
+		if(antialiased)
+		{
+			if(renderSettings.isAdaptive())
+			{
+				edges = findEdges(renderSettings.getEdgeThreshold());
+			}
+			
+			renderPass(renderSettings, beamDistances, 0, firstStep);
+		}
+	}
+	
+	//Returns which pixels are on edges for adaptive antialiasing, indexed by row, then column. A
+	//pixel is on an edge if its sample and a neighboring pixel's differ in whether they hit the
+	//fractal, by more than the given threshold in any color channel, or in distance from the
+	//camera by more than the depth threshold (relative to the nearer of the two).
+	private boolean[] findEdges(double threshold)
+	{
+		boolean[] edges = new boolean[width * height];
+		int i;
+		
+		for(int y = 0; y < height; y++)
+		{
+			for(int x = 0; x < width; x++)
+			{
+				i = y * width + x;
+				
+				//Compare the pixel with the ones to its right and above it, marking both as edges
+				//if they differ.
+				if(x + 1 < width && isEdge(i, i + 1, threshold))
+				{
+					edges[i] = edges[i + 1] = true;
+				}
+				
+				if(y + 1 < height && isEdge(i, i + width, threshold))
+				{
+					edges[i] = edges[i + width] = true;
+				}
+			}
+		}
+		
+		return edges;
+	}
+	
+	//Returns whether there's an edge between the pixels with the given indices.
+	private boolean isEdge(int i, int j, double threshold)
+	{
+		double nearer = Math.min(depths[i], depths[j]);
+		int difference;
+		
+		//The pixels are on an edge if one hit the fractal and the other didn't.
+		if(Double.isInfinite(depths[i]) != Double.isInfinite(depths[j]))
+		{
+			return true;
+		}
+		
+		for(int shift = 0; shift < 24; shift += 8)
+		{
+			difference = ((samples[i] >> shift) & 0xFF) - ((samples[j] >> shift) & 0xFF);
+			
+			if(Math.abs(difference) > threshold)
+			{
+				return true;
+			}
+		}
+		
+		return Math.abs(depths[i] - depths[j]) > depthThreshold * nearer;
+	}
+	
+	//Runs the given tasks on the render pool and waits for all of them to finish.
+	private void run(Runnable[] tasks)
+	{
+		List<Callable<Object>> callables = new ArrayList<Callable<Object>>();
+		
+		for(Runnable task : tasks)
+		{
+			callables.add(Executors.callable(task));
+		}
+		
+		//Wait for all of the tasks to finish, reporting any that failed.
+		for(Future<Object> future : pool.invokeAll(callables))
 		{
 			try
 			{
-    			threads[i].join();
+				future.get();
 			}
 			catch(InterruptedException e)
 			{
 				e.printStackTrace();
 			}
+			catch(ExecutionException e)
+			{
+				e.printStackTrace();
+			}
 		}
-		
-		return camera.getImage();
 	}
 	
 	//Sets the camera and point lights according to the current fractal's default camera position.
-	public void resetCamera()
+	public synchronized void resetCamera()
 	{
 		//Create values for lights on each side of the camera with brightness proportional to their
 		//distance from the origin.
@@ -266,22 +904,117 @@ public class FractalRenderer
 		defaultAxisOfRotation = new Vector3(up);
 		
 		//Add the point lights.
-		lights.clear();
-		lights.add(new Light(lightPosL, 1.0, 1.0, 1.0, brightness));
-		lights.add(new Light(lightPosR, 1.0, 1.0, 1.0, brightness));
+		lights = Collections.unmodifiableList(Arrays.asList(new Light(lightPosL, 1.0, 1.0, 1.0,
+			brightness), new Light(lightPosR, 1.0, 1.0, 1.0, brightness)));
 	}
 	
-	//Sets the ambient light.
+	//Sets the ambient light. Cancels the render in progress first.
 	public void setAmbientLight(Light ambientLight)
 	{
-		this.ambientLight = ambientLight;
+		cancel();
+		
+		synchronized(this)
+		{
+			this.ambientLight = ambientLight;
+		}
+	}
+	
+	//Replaces the point lights with a copy of the given list. Renders keep the list they started
+	//with, since it's never changed, only replaced. Cancels the render in progress first.
+	public void setLights(List<Light> lights)
+	{
+		cancel();
+		
+		synchronized(this)
+		{
+			this.lights = Collections.unmodifiableList(new ArrayList<Light>(lights));
+		}
+	}
+	
+	//Moves the camera to the given position, facing the given direction. The up vector doesn't
+	//have to be orthogonal to the direction, but it can't be parallel to it. Returns false
+	//without moving the camera if either vector is zero or they're parallel. Cancels the render
+	//in progress first.
+	public boolean setCamera(Vector3 position, Vector3 direction, Vector3 up)
+	{
+		cancel();
+		
+		synchronized(this)
+		{
+			//The up vector must have a part orthogonal to the direction.
+			if(Vector3.cross(direction, up).magnitude() <=
+				epsilon * direction.magnitude() * up.magnitude())
+			{
+				return false;
+			}
+			
+			//Make the up vector orthogonal to the direction, and rotate left and right turns
+			//around it.
+			up = Vector3.cross(Vector3.cross(direction, up), direction);
+			
+			camera.adjustCamera(new Vector3(position), direction, up);
+			
+			defaultAxisOfRotation = new Vector3(camera.getUp());
+			return true;
+		}
 	}
 	
 	//Sets camera/light values for the given fractal.
-	public void setFractal(Fractal fractal)
+	public synchronized void setFractal(Fractal fractal)
 	{
 		this.fractal = fractal;
 		
 		resetCamera();
 	}
+	
+	//Sets the render settings used by render().
+	public synchronized void setSettings(RenderSettings settings)
+	{
+		this.settings = settings;
+	}
+	
+	//Renders on the given pool instead of the renderer's own, so that several renderers can share
+	//its threads and their tiles are scheduled together. The thread count setting is ignored
+	//while the pool is set, and the pool report only counts this renderer's work. The renderer
+	//never shuts a shared pool down. Passing null goes back to the renderer's own pool.
+	public synchronized void setPool(ForkJoinPool pool)
+	{
+		shutdown();
+		
+		this.pool = pool;
+		this.sharedPool = pool != null;
+		poolStart = System.nanoTime();
+		busyTime = 0;
+		renderTime = 0;
+		renders = 0;
+	}
+	
+	//Shuts down the render pool once its current tasks finish. The next render creates a new
+	//pool. A shared pool is only let go of.
+	public void shutdown()
+	{
+		if(pool != null && !sharedPool)
+		{
+			pool.shutdown();
+		}
+		
+		pool = null;
+		sharedPool = false;
+	}
+	
+	//Creates the render pool with the given number of threads, replacing the current pool if it
+	//has a different number. The pool's statistics start over when it's replaced.
+	private void updatePool(int threads)
+	{
+		if(!sharedPool && (pool == null || pool.getParallelism() != threads))
+		{
+			shutdown();
+			
+			pool = new ForkJoinPool(threads);
+			poolStart = System.nanoTime();
+			busyTime = 0;
+			renderTime = 0;
+			renders = 0;
+		}
+	}
 }
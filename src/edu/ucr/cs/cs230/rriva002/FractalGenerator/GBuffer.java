@@ -0,0 +1,128 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+//Keeps the point of intersection, surface normal and ambient openness of every sample of the last
+//render, so that the image can be shaded again with different lights without marching its rays
+//from the camera. Each pixel has a slot for each of its antialiasing samples, numbered in the
+//order they're rendered. Workers store samples in different pixels, so it's safe to fill from
+//several threads.
+public class GBuffer
+{
+	private final int width, height, samples;
+	private final double[] intersections, normals, openness;
+	private final boolean[] hits;
+	private Vector3 position, direction, up;
+	private Fractal fractal;
+	private String description;
+	private RenderSettings settings;
+	private boolean complete = false;
+	
+	//Constructor. Creates an empty G-buffer for images with the given dimensions in pixels and
+	//number of samples per pixel.
+	public GBuffer(int width, int height, int samples)
+	{
+		this.width = width;
+		this.height = height;
+		this.samples = samples;
+		this.intersections = new double[3 * width * height * samples];
+		this.normals = new double[3 * width * height * samples];
+		this.openness = new double[width * height * samples];
+		this.hits = new boolean[width * height * samples];
+	}
+	
+	//Marks the G-buffer as incomplete while a new render fills it.
+	public void begin()
+	{
+		complete = false;
+	}
+	
+	//Returns the point of intersection of the given sample of the pixel with the given index, or
+	//null if the sample missed the fractal.
+	public Vector3 getIntersection(int pixel, int sample)
+	{
+		int i = pixel * samples + sample;
+		
+		return hits[i] ? new Vector3(intersections[3 * i], intersections[3 * i + 1],
+			intersections[3 * i + 2]) : null;
+	}
+	
+	//Returns the normalized surface normal at the given sample's point of intersection.
+	public Vector3 getNormal(int pixel, int sample)
+	{
+		int i = pixel * samples + sample;
+		
+		return new Vector3(normals[3 * i], normals[3 * i + 1], normals[3 * i + 2]);
+	}
+	
+	//Returns how open the surface is to the environment at the given sample's point of
+	//intersection.
+	public double getOpenness(int pixel, int sample)
+	{
+		return openness[pixel * samples + sample];
+	}
+	
+	//Returns the number of samples per pixel.
+	public int getSamples()
+	{
+		return samples;
+	}
+	
+	//Returns whether the G-buffer holds a complete render of the given fractal from the camera's
+	//current view, with settings that march the same rays from the camera as the given ones.
+	public boolean matches(Camera camera, Fractal fractal, RenderSettings settings)
+	{
+		if(!complete || fractal != this.fractal || !fractal.getDescription().equals(description))
+		{
+			return false;
+		}
+		
+		if(!camera.getPosition().equals(position) || !camera.getDirection().equals(direction) ||
+			!camera.getUp().equals(up) || camera.getWidth() != width ||
+			camera.getHeight() != height)
+		{
+			return false;
+		}
+		
+		return settings.getAntialiasingFactor() == this.settings.getAntialiasingFactor() &&
+			settings.getRelaxationFactor() == this.settings.getRelaxationFactor() &&
+			settings.getFootprintScale() == this.settings.getFootprintScale() &&
+			settings.getBeamBlockSize() == this.settings.getBeamBlockSize() &&
+			settings.getPacketSize() == this.settings.getPacketSize() &&
+			settings.getDistanceEngine() == this.settings.getDistanceEngine() &&
+			settings.getNormalEstimator() == this.settings.getNormalEstimator() &&
+			settings.isDistanceGridEnabled() == this.settings.isDistanceGridEnabled() &&
+			settings.getDistanceGridSize() == this.settings.getDistanceGridSize();
+	}
+	
+	//Stores the given sample of the pixel with the given index. The point of intersection is null
+	//if the sample missed the fractal, in which case the normal and openness are ignored.
+	public void put(int pixel, int sample, Vector3 intersection, Vector3 normal, double openness)
+	{
+		int i = pixel * samples + sample;
+		
+		hits[i] = intersection != null;
+		
+		if(intersection != null)
+		{
+			intersections[3 * i] = intersection.getX();
+			intersections[3 * i + 1] = intersection.getY();
+			intersections[3 * i + 2] = intersection.getZ();
+			normals[3 * i] = normal.getX();
+			normals[3 * i + 1] = normal.getY();
+			normals[3 * i + 2] = normal.getZ();
+			this.openness[i] = openness;
+		}
+	}
+	
+	//Marks the G-buffer as holding a complete render of the given fractal from the camera's
+	//current view with the given settings.
+	public void store(Camera camera, Fractal fractal, RenderSettings settings)
+	{
+		this.position = new Vector3(camera.getPosition());
+		this.direction = new Vector3(camera.getDirection());
+		this.up = new Vector3(camera.getUp());
+		this.fractal = fractal;
+		this.description = fractal.getDescription();
+		this.settings = new RenderSettings(settings);
+		this.complete = true;
+	}
+}
@@ -10,31 +10,55 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.WindowEvent;
+import java.awt.event.WindowListener;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.Box;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 public class GUI implements KeyListener
 {
 	private final JFrame frame = new JFrame("Fractal Generator");
 	private final Box controlBox = Box.createHorizontalBox();
 	private final JComboBox<Fractal> fractalSelector = new JComboBox<Fractal>();
+	private final JComboBox<String> viewSelector = new JComboBox<String>(new String[]{"Image",
+		"Steps", "Distance Estimates", "Shadow Steps", "Time"});
+	private final JComboBox<MathProvider> mathSelector = new JComboBox<MathProvider>(
+		MathProvider.values());
+	private final JComboBox<String> normalsSelector = new JComboBox<String>(new String[]{
+		"Central", "Tetrahedral"});
+	private final JCheckBox progressiveBox = new JCheckBox("Progressive", true);
+	private final JCheckBox adaptiveBox = new JCheckBox("Adaptive AA", false);
+	private final JCheckBox shadowCacheBox = new JCheckBox("Shadow Cache", false);
+	private final JCheckBox reprojectionBox = new JCheckBox("Reprojection", false);
+	private final JCheckBox relightingBox = new JCheckBox("Relighting", false);
+	private final JCheckBox distanceGridBox = new JCheckBox("Distance Grid", false);
 	private final JButton renderButton = new JButton("Render");
 	private final JLabel imageLabel = new JLabel(), infoLabel = new JLabel(" ");
+	private final ExecutorService renderExecutor = Executors.newSingleThreadExecutor();
+	private final Timer repaintTimer;
 	private FractalRenderer fractalRenderer;
+	private BufferedImage renderedImage;
 	private static final String labelPrefix = " ", labelSuffix = ": ", aaLabel = "Antialiasing";
-	private static final int parameterBoxIndex = 2;
+	private static final String relaxationLabel = "Relaxation";
+	private static final int parameterBoxIndex = 2, renderSettings = 2, repaintDelay = 100;
+	private double relaxationFactor = 1.0;
 	private int width, height, antialiasingFactor = 1;
+	private volatile int renderRequests = 0;
 	private boolean controlsEnabled = false;
 	
 	//Constructor. Adds the given fractals to the combo box.
@@ -44,6 +68,16 @@ public class GUI implements KeyListener
 		this.height = height;
 		fractalRenderer = new FractalRenderer(width, height, fractals[0]);
 		
+		//Repaint the image being rendered periodically rather than as each tile finishes.
+		repaintTimer = new Timer(repaintDelay, new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent actionEvent)
+			{
+				showProgress();
+			}
+		});
+		
 		for(Fractal fractal : fractals)
 		{
 			fractalSelector.addItem(fractal);
@@ -55,6 +89,7 @@ public class GUI implements KeyListener
 	{
 		Box parameterBox = Box.createHorizontalBox();
 		final JTextField antialiasing = new JTextField(Integer.toString(antialiasingFactor));
+		final JTextField relaxation = new JTextField(Double.toString(relaxationFactor));
 		KeyListener keyListener = new KeyListener()
 		{
 			@Override
@@ -101,11 +136,34 @@ public class GUI implements KeyListener
 			}
 		});
 		
+		relaxation.addFocusListener(new FocusListener()
+		{
+			@Override
+			public void focusGained(FocusEvent focusEvent)
+			{
+				//Change the text color to black and select the box's contents.
+				relaxation.setForeground(Color.BLACK);
+				relaxation.selectAll();
+			}
+
+			@Override
+			public void focusLost(FocusEvent focusEvent)
+			{
+				
+			}
+		});
+		
 		//Add the antialiasing label and text box to the parameter box.
 		antialiasing.addKeyListener(keyListener);
 		parameterBox.add(new JLabel(labelPrefix + aaLabel + labelSuffix));
 		parameterBox.add(antialiasing);
 		
+		//Add the relaxation factor label and text box to the parameter box.
+		relaxation.setToolTipText("Must be in the range [1, 2).");
+		relaxation.addKeyListener(keyListener);
+		parameterBox.add(new JLabel(labelPrefix + relaxationLabel + labelSuffix));
+		parameterBox.add(relaxation);
+		
 		//Add a label and text field for each parameter.
 		for(String[] parameter : ((Fractal) fractalSelector.getSelectedItem()).getParameters())
 		{
@@ -140,18 +198,27 @@ public class GUI implements KeyListener
 	//Shows the light editor.
 	private void configureLights()
 	{
-		LightConfiguration lightConfiguration = new LightConfiguration(fractalRenderer);
+		LightConfiguration lightConfiguration;
+		
+		//Cancel the render in progress, since the light editor changes the lights it's using.
+		fractalRenderer.cancel();
+		
+		lightConfiguration = new LightConfiguration(fractalRenderer);
 		
 		//Disable the main GUI while the light editor is open.
 		frame.setEnabled(false);
 		lightConfiguration.configure(frame);
 	}
 	
-	//Renders a fractal image.
+	//Renders a fractal image on the render thread. A render that's already in progress is
+	//cancelled, and its partly rendered image is kept on screen until the new render replaces it.
+	//The controls stay enabled while the fractal is rendering.
 	private void generateFractal()
 	{
-		//Disable the control box while the fractal is rendering.
-		setControlBoxEnabled(false);
+		//Cancel the render in progress and any render that hasn't started yet.
+		final int request = ++renderRequests;
+		final CancellationToken token = fractalRenderer.nextToken();
+		
 		infoLabel.setText("Rendering...");
 		
 		SwingUtilities.invokeLater(new Runnable()
@@ -159,8 +226,8 @@ public class GUI implements KeyListener
 			public void run()
 			{
 				//Start the timer.
-				long start = new Date().getTime();
-				int labelEnd;
+				final long start = new Date().getTime();
+				int labelEnd, index;
 				double value, oldValue;
 				boolean valid = true, parameterChanged = false;
 				Fractal fractal = (Fractal) fractalSelector.getSelectedItem();
@@ -170,77 +237,115 @@ public class GUI implements KeyListener
 				JTextField textField;
 				String parameter;
 				
-				//Verify each parameter in the parameter box.
-				for(int i = 0; i < parameterBox.getComponentCount(); i += 2)
+				//Wait for the cancelled render to stop before changing the fractal or settings.
+				synchronized(fractalRenderer)
 				{
-					parameter = ((JLabel) parameterBox.getComponent(i)).getText();
-					labelEnd = parameter.length() - labelSuffix.length();
-					parameter = parameter.substring(labelPrefix.length(), labelEnd);
-					textField = (JTextField) parameterBox.getComponent(i + 1);
-					
-					try
+					//Verify each parameter in the parameter box.
+					for(int i = 0; i < parameterBox.getComponentCount(); i += 2)
 					{
-						if(parameter.equals(aaLabel))
+						parameter = ((JLabel) parameterBox.getComponent(i)).getText();
+						labelEnd = parameter.length() - labelSuffix.length();
+						parameter = parameter.substring(labelPrefix.length(), labelEnd);
+						textField = (JTextField) parameterBox.getComponent(i + 1);
+						
+						try
 						{
-							//Verify that the antialiasing factor is an integer of value 1 or more.
-							antialiasingFactor = Integer.parseInt(textField.getText());
+							if(parameter.equals(aaLabel))
+							{
+								//Verify that the antialiasing factor is an integer of value 1 or
+								//more.
+								antialiasingFactor = Integer.parseInt(textField.getText());
+								
+								if(antialiasingFactor < 1)
+								{
+									throw new Exception("Invalid value for " + parameter + ".");
+								}
+								
+								continue;
+							}
+							else if(parameter.equals(relaxationLabel))
+							{
+								//Verify that the relaxation factor is a number in the range [1, 2).
+								relaxationFactor = Double.parseDouble(textField.getText());
+								
+								if(relaxationFactor < 1.0 || relaxationFactor >= 2.0)
+								{
+									throw new Exception("Invalid value for " + parameter + ".");
+								}
+								
+								continue;
+							}
+							else if(parameter.equals(Fractal.iterationsString))
+							{
+								//Verify that the number of iterations is an integer.
+								value = Integer.parseInt(textField.getText());
+							}
+							else
+							{
+								//Verify that the parameter's value is a number and determine
+								//whether or not it's been changed.
+								index = i / 2 - renderSettings;
+								oldValue = Double.parseDouble(parameters.get(index)[1]);
+								value = Double.parseDouble(textField.getText());
+								parameterChanged = parameterChanged || oldValue != value;
+							}
 							
-							if(antialiasingFactor < 1)
+							//Verify that the parameter's value is valid.
+							if(!fractal.setParameter(parameter, value))
 							{
 								throw new Exception("Invalid value for " + parameter + ".");
 							}
-							
-							continue;
-						}
-						else if(parameter.equals(Fractal.iterationsString))
-						{
-							//Verify that the number of iterations is an integer.
-							value = Integer.parseInt(textField.getText());
 						}
-						else
+						catch(Exception exception)
 						{
-							//Verify that the parameter's value is a number and determine whether or
-							//not it's been changed.
-							oldValue = Double.parseDouble(parameters.get(i / 2 - 1)[1]);
-							value = Double.parseDouble(textField.getText());
-							parameterChanged = parameterChanged || oldValue != value;
-						}
-						
-						//Verify that the parameter's value is valid.
-						if(!fractal.setParameter(parameter, value))
-						{
-							throw new Exception("Invalid value for " + parameter + ".");
+							valid = false;
+							
+							//Set the text color to red and keep track of the parameters with
+							//invalid values.
+							textField.setForeground(Color.RED);
+							invalidParameters.add(parameter);
 						}
 					}
-					catch(Exception exception)
+					
+					//Reset the camera if any of the fractal-specific parameters were changed.
+					if(valid && parameterChanged)
 					{
-						valid = false;
-						
-						//Set the text color to red and keep track of the parameters with invalid
-						//values.
-						textField.setForeground(Color.RED);
-						invalidParameters.add(parameter);
+						fractalRenderer.resetCamera();
 					}
+					
+					//Apply the render settings.
+					boolean recordCosts = viewSelector.getSelectedIndex() > 0;
+					
+					fractalRenderer.getSettings().setCostMapEnabled(recordCosts);
+					fractalRenderer.getSettings().setMathProvider(
+						(MathProvider) mathSelector.getSelectedItem());
+					fractalRenderer.getSettings().setNormalEstimator(RenderSettings.NormalEstimator
+						.values()[normalsSelector.getSelectedIndex()]);
+					fractalRenderer.getSettings().setProgressive(progressiveBox.isSelected());
+					fractalRenderer.getSettings().setAdaptive(adaptiveBox.isSelected());
+					fractalRenderer.getSettings().setShadowCacheEnabled(
+						shadowCacheBox.isSelected());
+					fractalRenderer.getSettings().setReprojectionMode(
+						reprojectionBox.isSelected() ? RenderSettings.ReprojectionMode.DISTANCES :
+						RenderSettings.ReprojectionMode.OFF);
+					fractalRenderer.getSettings().setRelightingEnabled(relightingBox.isSelected());
+					fractalRenderer.getSettings().setDistanceGridEnabled(
+						distanceGridBox.isSelected());
 				}
 				
-				//Render the fractal if all the parameter values were valid.
+				//Render the fractal on the render thread if all the parameter values were valid,
+				//showing its progress until it finishes.
 				if(valid)
 				{
-					//Reset the camera if any of the fractal-specific parameters were changed.
-					if(parameterChanged)
+					renderExecutor.execute(new Runnable()
 					{
-						fractalRenderer.resetCamera();
-					}
-					
-					//Render the fractal and display the rendering time.
-					//imageLabel.setIcon(new ImageIcon(antialias(fractalRenderer.render())));
-					imageLabel.setIcon(new ImageIcon(fractalRenderer.render(antialiasingFactor)));
-					
-					double seconds = (double) (new Date().getTime() - start) / 1000.0;
-					
-					infoLabel.setText("Rendered in " + seconds + " seconds");
+						public void run()
+						{
+							renderFractal(request, token, start);
+						}
+					});
 					
-					controlsEnabled = true;
+					repaintTimer.restart();
 				}
 				else
 				{
@@ -262,11 +367,65 @@ public class GUI implements KeyListener
 					errorMessage += " for " + invalid + ".";
 					
 					infoLabel.setText(errorMessage);
+					renderButton.requestFocusInWindow();
 				}
+			}
+		});
+	}
+	
+	//Renders the fractal on the render thread and displays it with the rendering time, which is
+	//measured from the given start time, until the given token is cancelled. The render is skipped
+	//if a newer one has been requested since. A cancelled render's image is displayed as a preview
+	//of the newer one.
+	private void renderFractal(final int request, CancellationToken token, final long start)
+	{
+		final BufferedImage image;
+		final long estimates;
+		final boolean cancelled;
+		
+		synchronized(fractalRenderer)
+		{
+			if(request != renderRequests)
+			{
+				return;
+			}
+			
+			fractalRenderer.getSettings().setAntialiasingFactor(antialiasingFactor);
+			fractalRenderer.getSettings().setRelaxationFactor(relaxationFactor);
+			
+			image = fractalRenderer.render(token);
+			cancelled = token.isCancelled();
+			estimates = fractalRenderer.getDistanceEstimates();
+		}
+		
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				renderedImage = image;
 				
-				//Re-enable the control box.
-				renderButton.requestFocusInWindow();
-				setControlBoxEnabled(true);
+				showImage();
+				
+				//Stop showing the progress and display the rendering time unless a newer render has
+				//been requested.
+				if(request == renderRequests)
+				{
+					double seconds = (double) (new Date().getTime() - start) / 1000.0;
+					
+					repaintTimer.stop();
+					
+					if(cancelled)
+					{
+						infoLabel.setText("Rendering cancelled");
+					}
+					else
+					{
+						infoLabel.setText("Rendered in " + seconds + " seconds (" + estimates +
+							" distance estimates)");
+					}
+					
+					controlsEnabled = true;
+				}
 			}
 		});
 	}
@@ -349,23 +508,39 @@ public class GUI implements KeyListener
 		
 	}
 	
-	//Enables or disables the control box's components.
-	private void setControlBoxEnabled(boolean enabled)
+	//Displays the image being rendered and the fraction of it that's done. The image is updated
+	//in place as tiles finish, so it only needs to be repainted.
+	private void showProgress()
 	{
-		//Enable or disable the fractal selector combo box.
-		fractalSelector.setEnabled(enabled);
-		
-		Box parameterBox = (Box) controlBox.getComponent(parameterBoxIndex);
+		BufferedImage image = fractalRenderer.getImage();
+		ImageIcon icon = (ImageIcon) imageLabel.getIcon();
 		
-		//Enable or disable each text box in the parameter box.
-		for(int i = 1; i < parameterBox.getComponentCount(); i += 2)
+		if(icon == null || icon.getImage() != image)
 		{
-			parameterBox.getComponent(i).setEnabled(enabled);
+			imageLabel.setIcon(new ImageIcon(image));
+		}
+		else
+		{
+			imageLabel.repaint();
 		}
 		
-		//Enable or disable the buttons.
-		controlBox.getComponent(controlBox.getComponentCount() - 2).setEnabled(enabled);
-		renderButton.setEnabled(enabled);
+		infoLabel.setText("Rendering... " + (int) (100.0 * fractalRenderer.getProgress()) + "%");
+	}
+	
+	//Displays the rendered image, or the selected cost heatmap if one was recorded.
+	private void showImage()
+	{
+		CostMap costMap = fractalRenderer.getCostMap();
+		int view = viewSelector.getSelectedIndex();
+		
+		if(view > 0 && costMap != null)
+		{
+			imageLabel.setIcon(new ImageIcon(costMap.toImage(CostMap.Metric.values()[view - 1])));
+		}
+		else
+		{
+			imageLabel.setIcon(new ImageIcon(renderedImage));
+		}
 	}
 	
 	//Creates the GUI and displays it.
@@ -386,11 +561,60 @@ public class GUI implements KeyListener
 				}
 				
 				//Add the appropriate parameter box and sets the fractal according to the combo box.
+				//The render in progress is cancelled first so that it doesn't hold up the change.
 				addParameterBox();
+				fractalRenderer.cancel();
 				fractalRenderer.setFractal((Fractal) fractalSelector.getSelectedItem());
 			}
 		});
 		
+		viewSelector.addActionListener(new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent actionEvent)
+			{
+				//Enable the view after a fractal has been rendered.
+				if(controlsEnabled)
+				{
+					//Render the fractal again if the last render didn't record its costs.
+					if(viewSelector.getSelectedIndex() > 0 && fractalRenderer.getCostMap() == null)
+					{
+						generateFractal();
+					}
+					else
+					{
+						showImage();
+					}
+				}
+			}
+		});
+		
+		mathSelector.addActionListener(new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent actionEvent)
+			{
+				//Render the fractal again with the selected math functions.
+				if(controlsEnabled)
+				{
+					generateFractal();
+				}
+			}
+		});
+		
+		normalsSelector.addActionListener(new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent actionEvent)
+			{
+				//Render the fractal again with the selected normal estimator.
+				if(controlsEnabled)
+				{
+					generateFractal();
+				}
+			}
+		});
+		
 		renderButton.addActionListener(new ActionListener()
 		{
 			@Override
@@ -471,10 +695,76 @@ public class GUI implements KeyListener
 			}
 		});
 		
+		frame.addWindowListener(new WindowListener()
+		{
+			@Override
+			public void windowActivated(WindowEvent windowEvent)
+			{
+				
+			}
+
+			@Override
+			public void windowClosed(WindowEvent windowEvent)
+			{
+				
+			}
+
+			@Override
+			public void windowClosing(WindowEvent windowEvent)
+			{
+				//Stop the render threads when the window is closed.
+				fractalRenderer.cancel();
+				renderExecutor.shutdown();
+				fractalRenderer.shutdown();
+			}
+
+			@Override
+			public void windowDeactivated(WindowEvent windowEvent)
+			{
+				
+			}
+
+			@Override
+			public void windowDeiconified(WindowEvent windowEvent)
+			{
+				
+			}
+
+			@Override
+			public void windowIconified(WindowEvent windowEvent)
+			{
+				
+			}
+
+			@Override
+			public void windowOpened(WindowEvent windowEvent)
+			{
+				
+			}
+		});
+		
 		//Add all of the components to the frame and show it.
 		controlBox.add(new JLabel(" Fractal Type: "));
 		controlBox.add(fractalSelector);
 		fractalSelector.setSelectedItem(fractalSelector.getItemAt(0));
+		controlBox.add(new JLabel(" View: "));
+		controlBox.add(viewSelector);
+		controlBox.add(new JLabel(" Math: "));
+		controlBox.add(mathSelector);
+		controlBox.add(new JLabel(" Normals: "));
+		controlBox.add(normalsSelector);
+		progressiveBox.addKeyListener(this);
+		controlBox.add(progressiveBox);
+		adaptiveBox.addKeyListener(this);
+		controlBox.add(adaptiveBox);
+		shadowCacheBox.addKeyListener(this);
+		controlBox.add(shadowCacheBox);
+		reprojectionBox.addKeyListener(this);
+		controlBox.add(reprojectionBox);
+		relightingBox.addKeyListener(this);
+		controlBox.add(relightingBox);
+		distanceGridBox.addKeyListener(this);
+		controlBox.add(distanceGridBox);
 		lightButton.addKeyListener(this);
 		controlBox.add(lightButton);
 		renderButton.addKeyListener(this);
@@ -9,7 +9,9 @@ import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.Box;
@@ -346,11 +348,10 @@ public class LightConfiguration
 	private void updateLights(JPanel panel)
 	{
 		Map<Light.Parameter, Double> parameters;
+		List<Light> lights = new ArrayList<Light>();
 		int offset, end = panel.getComponentCount() - rowsAfterLights * columns;
 		
-		//Delete the existing point lights.
-		fractalRenderer.getLights().clear();
-		
+
 		//Create a light according to each of the point light rows listed in the editor.
 		for(int i = (rowsBeforeLights - 1) * columns; i < end; i++)
 		{
@@ -376,9 +377,12 @@ public class LightConfiguration
 			}
 			else
 			{
-				fractalRenderer.getLights().add(new Light(parameters));
+				lights.add(new Light(parameters));
 			}
 		}
+		
+		//Replace the existing point lights.
+		fractalRenderer.setLights(lights);
 	}
 	
 	//Returns true if the values in the light editor are valid.
@@ -4,13 +4,28 @@ public class Main
 {
 	public static void main(String[] args)
 	{
+		//Render the given scene files without a display if there are any.
+		if(args.length > 0)
+		{
+			BatchRenderer.main(args);
+			return;
+		}
+		
 		//Create a GUI with the given dimensions and fractals.
-		int width = 800, height = 600, iterations = 10;
-		Fractal mandelbulb = new Mandelbulb(iterations, 1.25331, 8.0, 8.0, 8.0);
-		Fractal mandelbox = new Mandelbox(iterations, 2.0, 0.5, 1.0);
-		GUI gui = new GUI(width, height, new Fractal[]{mandelbulb, mandelbox});
+		int width = 800, height = 600;
+		GUI gui = new GUI(width, height, createFractals());
 		
 		//Show the GUI.
 		gui.show();
 	}
+	
+	//Returns a new instance of each fractal with its default parameters.
+	public static Fractal[] createFractals()
+	{
+		int iterations = 10;
+		Fractal mandelbulb = new Mandelbulb(iterations, 1.25331, 8.0, 8.0, 8.0);
+		Fractal mandelbox = new Mandelbox(iterations, 2.0, 0.5, 1.0);
+		
+		return new Fractal[]{mandelbulb, mandelbox};
+	}
 }
@@ -5,10 +5,12 @@ import java.util.List;
 
 public class Mandelbox extends Fractal
 {
-	private double scale, minRadiusSquared, boxFoldFactor;
-	private static final double defaultCameraAngle = Math.toRadians(-40.0);
+	private double scale, minRadiusSquared, boxFoldFactor, halfSideLength;
+	private double bailout = 0.0, bailoutSquared = Double.POSITIVE_INFINITY;
+	private static final double defaultCameraAngle = Math.toRadians(-40.0), minBailout = 2.0;
+	private static final double farBound = 2.0;
 	private static final String scaleString = "Scale", minRadiusString = "Inner Radius";
-	private static final String boxFoldString = "Box Fold Factor";
+	private static final String boxFoldString = "Box Fold Factor", bailoutString = "Bailout";
 	
 	//Constructor. Stores the given fractal parameters.
 	public Mandelbox(int iterations, double scale, double minRadius, double boxFoldFactor)
@@ -21,46 +23,163 @@ public class Mandelbox extends Fractal
 		this.minRadiusSquared = minRadius * minRadius;
 		this.boxFoldFactor = boxFoldFactor;
 		
-		//Update the default camera position and maximum ray marching distance.
+		//Update the default camera position, maximum ray marching distance and bounding volume.
 		updateParameterDependents();
 	}
 	
-	//Folds each component of the given vector across the sides of a cube.
-	private Vector3 boxFold(Vector3 v)
+	//Folds the given component of a vector across the sides of a cube.
+	private static double boxFold(double component)
 	{
-		double[] components = new double[]{v.getX(), v.getY(), v.getZ()};
+		if(component > 1.0)
+		{
+			return 2.0 - component;
+		}
+		else if(component < -1.0)
+		{
+			return -2.0 - component;
+		}
+		
+		return component;
+	}
+	
+	//Returns the distances along the given ray at which it enters and leaves the Mandelbox's
+	//bounding cube, or null if the ray misses it. The direction must be normalized.
+	public double[] clip(Vector3 endpoint, Vector3 direction)
+	{
+		double[] origin = new double[]{endpoint.getX(), endpoint.getY(), endpoint.getZ()};
+		double[] slope = new double[]{direction.getX(), direction.getY(), direction.getZ()};
+		double near = 0.0, far = Double.POSITIVE_INFINITY, side = halfSideLength + minDistance;
+		double entry, exit;
 		
-		for(int i = 0; i < components.length; i++)
+		//Intersect the ray with the pair of planes on each axis.
+		for(int i = 0; i < origin.length; i++)
 		{
-			if(components[i] > 1.0)
-			{
-				components[i] = 2.0 - components[i];
-			}
-			else if(components[i] < -1.0)
+			if(slope[i] == 0.0)
 			{
-				components[i] = -2.0 - components[i];
+				//A ray parallel to the planes misses unless it's between them.
+				if(Math.abs(origin[i]) > side)
+				{
+					return null;
+				}
+				
+				continue;
 			}
+			
+			entry = (-side - origin[i]) / slope[i];
+			exit = (side - origin[i]) / slope[i];
+			near = Math.max(near, Math.min(entry, exit));
+			far = Math.min(far, Math.max(entry, exit));
 		}
 		
-		return new Vector3(components[0], components[1], components[2]);
+		return near <= far ? new double[]{near, far} : null;
 	}
-
-	//Returns the estimated distance from the given position to the fractal's surface.
-	public double estimateDistance(Vector3 v)
+	
+	//Returns the estimated distance from the position with the given coordinates to the
+	//fractal's surface. Once a point escapes past the bailout radius, both its magnitude and the
+	//running derivative grow by about |scale * box fold factor| with each further iteration, so
+	//their ratio at that point is used as the estimate.
+	public double estimateDistance(double x, double y, double z)
 	{
-		Vector3 z = new Vector3(v);
-		double sphereRadius, runningDerivative = 1.0;
+		double zX = x, zY = y, zZ = z, sphereRadius, factor, runningDerivative = 1.0;
+		double magnitudeSquared = x * x + y * y + z * z;
 		
-		for(int i = 0; i < getIterations(); i++)
+		//Points far outside the bounding sphere are at least as far from the fractal as from it,
+		//as are points that start past the bailout radius, since they aren't iterated.
+		if(isFarOutside(magnitudeSquared) || magnitudeSquared >= bailoutSquared)
 		{
-			z = Vector3.scale(boxFold(z), boxFoldFactor);
-			sphereRadius = sphereFold(z);
-			z = Vector3.add(Vector3.scale(z, scale * sphereRadius), v);
+			return Math.sqrt(magnitudeSquared) - boundingRadius;
+		}
+		
+		for(int i = 0; i < getIterations() && magnitudeSquared < bailoutSquared; i++)
+		{
+			zX = boxFold(zX) * boxFoldFactor;
+			zY = boxFold(zY) * boxFoldFactor;
+			zZ = boxFold(zZ) * boxFoldFactor;
+			sphereRadius = sphereFold(zX * zX + zY * zY + zZ * zZ);
+			factor = scale * sphereRadius;
+			zX = zX * factor + x;
+			zY = zY * factor + y;
+			zZ = zZ * factor + z;
 			runningDerivative *= Math.abs(boxFoldFactor * sphereRadius * scale);
 			runningDerivative++;
+			magnitudeSquared = zX * zX + zY * zY + zZ * zZ;
 		}
 		
-		return z.magnitude() / Math.abs(runningDerivative);
+		return Math.sqrt(magnitudeSquared) / Math.abs(runningDerivative);
+	}
+	
+	//Estimates the distances from the first n positions in the given coordinate arrays to the
+	//Mandelbox's surface and stores them in the output array, using the given scratch arrays for
+	//the positions' state. Each iteration is applied to every position in turn with branch-free
+	//folds, leaving the loop over the positions for the JIT compiler to auto-vectorize where it
+	//can. Positions that have escaped past the bailout radius keep their values, and the
+	//iterations stop once every position has escaped. The results are identical to the
+	//single-position estimate.
+	public void estimateDistance(double[] xs, double[] ys, double[] zs, double[] out,
+		double[][] scratch, int n)
+	{
+		double[] zX = scratch[0], zY = scratch[1], zZ = scratch[2], magnitudesSquared = scratch[3];
+		double sphereRadius, factor, x, y, z, magnitudeSquared;
+		int active = n;
+		
+		System.arraycopy(xs, 0, zX, 0, n);
+		System.arraycopy(ys, 0, zY, 0, n);
+		System.arraycopy(zs, 0, zZ, 0, n);
+		
+		//The output array holds the running derivatives until the last step. Positions that get the
+		//far outside bound are marked as already escaped, and positions that start past the bailout
+		//radius aren't iterated.
+		for(int i = 0; i < n; i++)
+		{
+			magnitudeSquared = xs[i] * xs[i] + ys[i] * ys[i] + zs[i] * zs[i];
+			out[i] = 1.0;
+			magnitudesSquared[i] = isFarOutside(magnitudeSquared) ? Double.POSITIVE_INFINITY :
+				magnitudeSquared;
+		}
+		
+		for(int i = 0; i < getIterations() && active > 0; i++)
+		{
+			active = 0;
+			
+			for(int j = 0; j < n; j++)
+			{
+				//Skip positions that have escaped.
+				if(!(magnitudesSquared[j] < bailoutSquared))
+				{
+					continue;
+				}
+				
+				//Clamping to [-1, 1] and reflecting gives the same result as boxFold.
+				x = (Math.max(-1.0, Math.min(zX[j], 1.0)) * 2.0 - zX[j]) * boxFoldFactor;
+				y = (Math.max(-1.0, Math.min(zY[j], 1.0)) * 2.0 - zY[j]) * boxFoldFactor;
+				z = (Math.max(-1.0, Math.min(zZ[j], 1.0)) * 2.0 - zZ[j]) * boxFoldFactor;
+				
+				//Clamping to [minRadiusSquared, 1] gives the same result as sphereFold.
+				magnitudeSquared = x * x + y * y + z * z;
+				sphereRadius = 1.0 / Math.max(minRadiusSquared, Math.min(magnitudeSquared, 1.0));
+				factor = scale * sphereRadius;
+				zX[j] = x * factor + xs[j];
+				zY[j] = y * factor + ys[j];
+				zZ[j] = z * factor + zs[j];
+				out[j] = out[j] * Math.abs(boxFoldFactor * sphereRadius * scale) + 1.0;
+				magnitudesSquared[j] = zX[j] * zX[j] + zY[j] * zY[j] + zZ[j] * zZ[j];
+				active++;
+			}
+		}
+		
+		for(int i = 0; i < n; i++)
+		{
+			magnitudeSquared = xs[i] * xs[i] + ys[i] * ys[i] + zs[i] * zs[i];
+			
+			if(isFarOutside(magnitudeSquared) || magnitudeSquared >= bailoutSquared)
+			{
+				out[i] = Math.sqrt(magnitudeSquared) - boundingRadius;
+			}
+			else
+			{
+				out[i] = Math.sqrt(magnitudesSquared[i]) / Math.abs(out[i]);
+			}
+		}
 	}
 	
 	//Returns ambient color values.
@@ -69,6 +188,12 @@ public class Mandelbox extends Fractal
 		return new double[]{0.3, 0.3, 0.3};
 	}
 	
+	//Returns half the width of the Mandelbox's bounding cube.
+	public double getBoundingHalfWidth()
+	{
+		return halfSideLength;
+	}
+	
 	//Returns diffuse color values.
 	public double[] getDiffuseColor()
 	{
@@ -84,6 +209,7 @@ public class Mandelbox extends Fractal
 		parameters.add(new String[]{scaleString, Double.toString(scale)});
 		parameters.add(new String[]{minRadiusString, Double.toString(Math.sqrt(minRadiusSquared))});
 		parameters.add(new String[]{boxFoldString, Double.toString(boxFoldFactor)});
+		parameters.add(new String[]{bailoutString, Double.toString(bailout)});
 		return parameters;
 	}
 	
@@ -110,7 +236,7 @@ public class Mandelbox extends Fractal
 			
 			scale = value;
 			
-			//Update the default camera position and maximum ray marching distance.
+			//Update the default camera position, maximum ray marching distance and bounding volume.
 			updateParameterDependents();
 		}
 		else if(parameter.equals(minRadiusString))
@@ -133,18 +259,40 @@ public class Mandelbox extends Fractal
 			
 			boxFoldFactor = value;
 			
-			//Update the default camera position and maximum ray marching distance.
+			//Update the default camera position, maximum ray marching distance and bounding volume.
 			updateParameterDependents();
 		}
+		else if(parameter.equals(bailoutString))
+		{
+			//The bailout radius must be 0 (disabled) or at least 2 bounding radii, so that points
+			//that escape are far enough out for the escape estimate to hold.
+			if(value != 0.0 && value < minBailout * boundingRadius)
+			{
+				return false;
+			}
+			
+			bailout = value;
+			bailoutSquared = value > 0.0 ? value * value : Double.POSITIVE_INFINITY;
+		}
 		
 		return true;
 	}
 	
-	//Fold the given vector across the inner or outer radius of a sphere.
-	private double sphereFold(Vector3 v)
+	//Returns whether a position with the given squared magnitude is farther from the origin than
+	//the far bound (a multiple of the bounding radius). The distance to the bounding sphere is used
+	//as the estimate for such positions instead of iterating. The bound is 2 bounding radii, so the
+	//estimate is never close to the hit threshold.
+	private boolean isFarOutside(double magnitudeSquared)
 	{
-		double magnitudeSquared = Vector3.dot(v, v);
+		double radius = farBound * boundingRadius;
 		
+		return magnitudeSquared > radius * radius;
+	}
+	
+	//Returns the factor that folds a vector with the given squared magnitude across the inner or
+	//outer radius of a sphere.
+	private double sphereFold(double magnitudeSquared)
+	{
 		if(magnitudeSquared < minRadiusSquared)
 		{
 			return 1.0 / minRadiusSquared;
@@ -169,18 +317,27 @@ public class Mandelbox extends Fractal
 		minDistance = 1.0 / (double) (getIterations() * 10.0);
 	}
 	
-	//Sets the default camera position and maximum ray marching distance according to the size of
-	//the Mandelbox.
+	//Sets the default camera position, maximum ray marching distance and bounding volume according
+	//to the size of the Mandelbox.
 	private void updateParameterDependents()
 	{
 		double cosine = Math.cos(defaultCameraAngle), sine = Math.sin(defaultCameraAngle);
 		double tangent = Math.tan(Camera.fieldOfView / 2.0);
-		double halfSideLength = 2.0 * (scale < -1.0 ? 1.0 : (scale + 1.0) / (scale - 1.0));
 		Vector3 position = new Vector3(cosine, sine, 0.0);
 		
+		halfSideLength = 2.0 * (scale < -1.0 ? 1.0 : (scale + 1.0) / (scale - 1.0));
+		
 		//This needs to be modified to fully account for the box fold factor.
 		halfSideLength *= 1.0 * (boxFoldFactor > 0.0 ? 1.0 : (scale - 1.0) / (scale + 1.0));
 		maxDistance = new Vector3(halfSideLength, halfSideLength, halfSideLength).magnitude();
+		boundingRadius = maxDistance;
 		defaultCameraPosition = Vector3.scale(position, maxDistance + halfSideLength / tangent);
+		
+		//Raise the bailout radius to its limit if the bounding sphere has grown past it.
+		if(bailout > 0.0 && bailout < minBailout * boundingRadius)
+		{
+			bailout = minBailout * boundingRadius;
+			bailoutSquared = bailout * bailout;
+		}
 	}
 }
@@ -6,8 +6,10 @@ import java.util.List;
 public class Mandelbulb extends Fractal
 {
 	private double threshold, power, thetaFactor, phiFactor;
+	private int integerPower;
 	private static final String powerString = "Power", thetaFactorString = "Theta Factor";
 	private static final String phiFactorString = "Phi Factor";
+	private static final int maxIntegerPower = 16;
 	
 	//Constructor. Stores the given fractal parameters.
 	public Mandelbulb(int iterations, double threshold, double power, double thetaFactor,
@@ -16,30 +18,189 @@ public class Mandelbulb extends Fractal
 		super(iterations, threshold, new Vector3(0.0, -2.5, 0.0));
 		
 		this.threshold = threshold;
+		this.boundingRadius = threshold;
 		this.power = power;
 		this.thetaFactor = thetaFactor;
 		this.phiFactor = phiFactor;
+		
+		updateIntegerPower();
+	}
+	
+	//Returns the estimated distance from the position with the given coordinates to the
+	//fractal's surface.
+	public double estimateDistance(double x, double y, double z)
+	{
+		//Use the faster polynomial form when the power and angle factors are the same integer.
+		if(integerPower > 0)
+		{
+			return estimateDistanceIntegerPower(x, y, z);
+		}
+		
+		return estimateDistanceTrigonometric(x, y, z);
+	}
+	
+	//Returns the estimated distance from the position with the given coordinates to the
+	//fractal's surface using trigonometric functions, which works for any power and angle
+	//factors. MandelbulbCheck compares it with the polynomial form.
+	double estimateDistanceTrigonometric(double x, double y, double z)
+	{
+		double zX = x, zY = y, zZ = z, radius = Math.sqrt(x * x + y * y + z * z);
+		double runningDerivative = 1.0, theta, phi, sineTheta, scaledRadius;
+		MathProvider math = getMathProvider();
+		
+		for(int i = 0; i < getIterations() && radius < threshold; i++)
+		{
+			theta = thetaFactor * math.acos(zZ / radius);
+			phi = phiFactor * math.atan(zY / zX);
+			runningDerivative = math.pow(radius, power - 1.0) * power * runningDerivative + 1.0;
+			sineTheta = math.sin(theta);
+			scaledRadius = math.pow(radius, power);
+			zX = sineTheta * math.cos(phi) * scaledRadius + x;
+			zY = math.sin(phi) * sineTheta * scaledRadius + y;
+			zZ = math.cos(theta) * scaledRadius + z;
+			radius = Math.sqrt(zX * zX + zY * zY + zZ * zZ);
+		}
+		
+		return 0.5 * math.log(radius) * radius / runningDerivative;
 	}
 	
-	//Returns the estimated distance from the given position to the fractal's surface.
-	public double estimateDistance(Vector3 v)
+	//Returns the estimated distance from the position with the given coordinates to the
+	//fractal's surface when the power and both angle factors are the integer n. Raising
+	//(z + i * sqrt(x^2 + y^2)) to the nth power gives r^n * cos(n * theta) and
+	//r^n * sin(n * theta), and raising (x + iy) / sqrt(x^2 + y^2) gives cos(n * phi) and
+	//sin(n * phi), so no trigonometric functions are needed.
+	private double estimateDistanceIntegerPower(double x, double y, double z)
 	{
-		Vector3 zVector = new Vector3(v);
-		double radius = zVector.magnitude(), runningDerivative = 1.0, theta, phi, x, y, z;
+		double zX = x, zY = y, zZ = z, radius = Math.sqrt(x * x + y * y + z * z);
+		double runningDerivative = 1.0, planarRadius, thetaReal, thetaImaginary, phiReal;
+		double phiImaginary, cosineX, sineX, radiusPower, temp;
 		
 		for(int i = 0; i < getIterations() && radius < threshold; i++)
 		{
-			theta = thetaFactor * Math.acos(zVector.getZ() / radius);
-			phi = phiFactor * Math.atan(zVector.getY() / zVector.getX());
-			runningDerivative = Math.pow(radius, power - 1.0) * power * runningDerivative + 1.0;
-			x = Math.sin(theta) * Math.cos(phi);
-			y = Math.sin(phi) * Math.sin(theta);
-			z = Math.cos(theta);
-			zVector = Vector3.add(Vector3.scale(new Vector3(x, y, z), Math.pow(radius, power)), v);
-			radius = zVector.magnitude();
+			planarRadius = Math.sqrt(zX * zX + zY * zY);
+			cosineX = planarRadius > 0.0 ? zX / planarRadius : 1.0;
+			sineX = planarRadius > 0.0 ? zY / planarRadius : 0.0;
+			thetaReal = 1.0;
+			thetaImaginary = 0.0;
+			phiReal = 1.0;
+			phiImaginary = 0.0;
+			radiusPower = 1.0;
+			
+			//Multiply out the complex powers and r^(n - 1).
+			for(int j = 0; j < integerPower; j++)
+			{
+				temp = thetaReal * zZ - thetaImaginary * planarRadius;
+				thetaImaginary = thetaReal * planarRadius + thetaImaginary * zZ;
+				thetaReal = temp;
+				temp = phiReal * cosineX - phiImaginary * sineX;
+				phiImaginary = phiReal * sineX + phiImaginary * cosineX;
+				phiReal = temp;
+				radiusPower *= j > 0 ? radius : 1.0;
+			}
+			
+			//The generic path takes phi from atan rather than atan2, which differs by pi when x is
+			//negative. That flips the sign of both phi terms for odd powers.
+			if(zX < 0.0 && integerPower % 2 == 1)
+			{
+				phiReal = -phiReal;
+				phiImaginary = -phiImaginary;
+			}
+			
+			runningDerivative = radiusPower * power * runningDerivative + 1.0;
+			zX = thetaImaginary * phiReal + x;
+			zY = thetaImaginary * phiImaginary + y;
+			zZ = thetaReal + z;
+			radius = Math.sqrt(zX * zX + zY * zY + zZ * zZ);
+		}
+		
+		return 0.5 * getMathProvider().log(radius) * radius / runningDerivative;
+	}
+	
+	//Estimates the distances from the first n positions in the given coordinate arrays to the
+	//Mandelbulb's surface and stores them in the output array, using the given scratch arrays for
+	//the positions' state. With an integer power, each iteration of the polynomial form is
+	//applied to every position in turn, leaving the loop over the positions for the JIT compiler
+	//to auto-vectorize where it can. Positions that have escaped past the threshold keep their
+	//values, and the iterations stop once every position has escaped. The results are identical
+	//to the single-position estimate. Other powers are estimated one position at a time.
+	public void estimateDistance(double[] xs, double[] ys, double[] zs, double[] out,
+		double[][] scratch, int n)
+	{
+		double[] zX = scratch[0], zY = scratch[1], zZ = scratch[2], radii = scratch[3];
+		double planarRadius, thetaReal, thetaImaginary, phiReal, phiImaginary, cosineX, sineX;
+		double radiusPower, temp, radius;
+		MathProvider math = getMathProvider();
+		int active = n;
+		
+		if(integerPower == 0)
+		{
+			super.estimateDistance(xs, ys, zs, out, scratch, n);
+			return;
+		}
+		
+		//The output array holds the running derivatives until the last step.
+		for(int i = 0; i < n; i++)
+		{
+			zX[i] = xs[i];
+			zY[i] = ys[i];
+			zZ[i] = zs[i];
+			radii[i] = Math.sqrt(xs[i] * xs[i] + ys[i] * ys[i] + zs[i] * zs[i]);
+			out[i] = 1.0;
+		}
+		
+		for(int i = 0; i < getIterations() && active > 0; i++)
+		{
+			active = 0;
+			
+			for(int j = 0; j < n; j++)
+			{
+				//Skip positions that have escaped.
+				if(!(radii[j] < threshold))
+				{
+					continue;
+				}
+				
+				radius = radii[j];
+				planarRadius = Math.sqrt(zX[j] * zX[j] + zY[j] * zY[j]);
+				cosineX = planarRadius > 0.0 ? zX[j] / planarRadius : 1.0;
+				sineX = planarRadius > 0.0 ? zY[j] / planarRadius : 0.0;
+				thetaReal = 1.0;
+				thetaImaginary = 0.0;
+				phiReal = 1.0;
+				phiImaginary = 0.0;
+				radiusPower = 1.0;
+				
+				for(int k = 0; k < integerPower; k++)
+				{
+					temp = thetaReal * zZ[j] - thetaImaginary * planarRadius;
+					thetaImaginary = thetaReal * planarRadius + thetaImaginary * zZ[j];
+					thetaReal = temp;
+					temp = phiReal * cosineX - phiImaginary * sineX;
+					phiImaginary = phiReal * sineX + phiImaginary * cosineX;
+					phiReal = temp;
+					radiusPower *= k > 0 ? radius : 1.0;
+				}
+				
+				//Match the sign the generic path gets from atan for odd powers.
+				if(zX[j] < 0.0 && integerPower % 2 == 1)
+				{
+					phiReal = -phiReal;
+					phiImaginary = -phiImaginary;
+				}
+				
+				out[j] = radiusPower * power * out[j] + 1.0;
+				zX[j] = thetaImaginary * phiReal + xs[j];
+				zY[j] = thetaImaginary * phiImaginary + ys[j];
+				zZ[j] = thetaReal + zs[j];
+				radii[j] = Math.sqrt(zX[j] * zX[j] + zY[j] * zY[j] + zZ[j] * zZ[j]);
+				active++;
+			}
 		}
 		
-		return 0.5 * Math.log(radius) * radius / runningDerivative;
+		for(int i = 0; i < n; i++)
+		{
+			out[i] = 0.5 * math.log(radii[i]) * radii[i] / out[i];
+		}
 	}
 	
 	//Returns ambient color values.
@@ -98,6 +259,7 @@ public class Mandelbulb extends Fractal
 			phiFactor = value;
 		}
 		
+		updateIntegerPower();
 		return true;
 	}
 	
@@ -112,4 +274,20 @@ public class Mandelbulb extends Fractal
 	{
 		minDistance = 1.0 / (double) (getIterations() * 100.0);
 	}
+	
+	//Stores the power for the polynomial form if the power and both angle factors are the same
+	//small integer, or 0 otherwise.
+	private void updateIntegerPower()
+	{
+		boolean equal = power == thetaFactor && power == phiFactor;
+		
+		if(equal && power == Math.rint(power) && power >= 2.0 && power <= maxIntegerPower)
+		{
+			integerPower = (int) power;
+		}
+		else
+		{
+			integerPower = 0;
+		}
+	}
 }
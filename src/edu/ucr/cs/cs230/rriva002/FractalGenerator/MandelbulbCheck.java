@@ -0,0 +1,62 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.util.Random;
+
+//Checks that the Mandelbulb's polynomial distance estimate for integer powers matches its
+//trigonometric estimate, for each power from 2 to 16, at random points in the bounding sphere.
+//The estimates may only differ by rounding, which the iterations amplify near the surface, so
+//they must agree within an absolute tolerance of 1e-6, a thousandth of the default hit threshold.
+//Exits with status 1 if any point's estimates differ by more.
+public class MandelbulbCheck
+{
+	private static final double tolerance = 1e-6, threshold = 1.25331;
+	private static final int minPower = 2, maxPower = 16, iterations = 10;
+	
+	//Checks every power at the given number of points (default 100000).
+	public static void main(String[] args)
+	{
+		int points = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		boolean failed = false;
+		
+		for(int power = minPower; power <= maxPower; power++)
+		{
+			failed |= !check(power, points);
+		}
+		
+		if(failed)
+		{
+			System.exit(1);
+		}
+	}
+	
+	//Compares the two estimates for the given power at the given number of random points, prints
+	//the largest difference and returns whether it's within the tolerance.
+	private static boolean check(int power, int points)
+	{
+		Mandelbulb mandelbulb = new Mandelbulb(iterations, threshold, power, power, power);
+		Random random = new Random(1);
+		double radius = mandelbulb.getBoundingRadius(), x, y, z, difference, maxDifference = 0.0;
+		
+		for(int i = 0; i < points; i++)
+		{
+			do
+			{
+				x = (random.nextDouble() * 2.0 - 1.0) * radius;
+				y = (random.nextDouble() * 2.0 - 1.0) * radius;
+				z = (random.nextDouble() * 2.0 - 1.0) * radius;
+			}
+			while(x * x + y * y + z * z > radius * radius);
+			
+			difference = Math.abs(mandelbulb.estimateDistance(x, y, z) -
+				mandelbulb.estimateDistanceTrigonometric(x, y, z));
+			
+			//A difference that isn't a number is never within the tolerance.
+			maxDifference = Double.isNaN(difference) ? Double.POSITIVE_INFINITY :
+				Math.max(maxDifference, difference);
+		}
+		
+		System.out.println(String.format("Power %d: max difference %.3g (tolerance %.3g) %s",
+			power, maxDifference, tolerance, maxDifference <= tolerance ? "OK" : "FAILED"));
+		return maxDifference <= tolerance;
+	}
+}
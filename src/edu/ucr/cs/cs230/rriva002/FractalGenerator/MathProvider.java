@@ -0,0 +1,224 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+//Provides the math functions used by the distance estimators and shading at one of three tiers of
+//accuracy.
+public enum MathProvider
+{
+	//The java.lang.Math functions. Results are within 1 ulp of the exact result, but may use
+	//platform-specific code, so they can differ slightly between platforms.
+	EXACT("Exact")
+	{
+		public double acos(double a)
+		{
+			return Math.acos(a);
+		}
+		
+		public double atan(double a)
+		{
+			return Math.atan(a);
+		}
+		
+		public double cos(double a)
+		{
+			return Math.cos(a);
+		}
+		
+		public double log(double a)
+		{
+			return Math.log(a);
+		}
+		
+		public double pow(double a, double b)
+		{
+			return Math.pow(a, b);
+		}
+		
+		public double sin(double a)
+		{
+			return Math.sin(a);
+		}
+	},
+	
+	//Approximations for the functions that java.lang.Math computes in software. The arc tangent
+	//is a Taylor polynomial after range reduction, the arc cosine is derived from it and pow
+	//multiplies out integer exponents up to 16 in magnitude. The sine, cosine, logarithm and other
+	//powers use java.lang.Math, whose intrinsics are already faster than a polynomial. The maximum
+	//errors are 2e-10 for acos and 1e-10 for atan (absolute), and 2e-15 for integer powers
+	//(relative). The other functions are within 1 ulp, as with EXACT. MathProviderCheck checks
+	//these bounds. Multiplying out a power is about 4 times as fast as Math.pow when the exponent
+	//is the same from call to call, as it is in the distance estimators, but slower when the
+	//exponent changes on every call and the loop's branches are mispredicted.
+	FAST("Fast")
+	{
+		public double acos(double a)
+		{
+			return 2.0 * fastAtan(Math.sqrt((1.0 - a) / (1.0 + a)));
+		}
+		
+		public double atan(double a)
+		{
+			return fastAtan(a);
+		}
+		
+		public double cos(double a)
+		{
+			return Math.cos(a);
+		}
+		
+		public double log(double a)
+		{
+			return Math.log(a);
+		}
+		
+		public double pow(double a, double b)
+		{
+			return fastPow(a, b);
+		}
+		
+		public double sin(double a)
+		{
+			return Math.sin(a);
+		}
+	},
+	
+	//The java.lang.StrictMath functions. Results are within 1 ulp of the exact result and are
+	//identical on every platform, at some cost in speed.
+	STRICT("Strict")
+	{
+		public double acos(double a)
+		{
+			return StrictMath.acos(a);
+		}
+		
+		public double atan(double a)
+		{
+			return StrictMath.atan(a);
+		}
+		
+		public double cos(double a)
+		{
+			return StrictMath.cos(a);
+		}
+		
+		public double log(double a)
+		{
+			return StrictMath.log(a);
+		}
+		
+		public double pow(double a, double b)
+		{
+			return StrictMath.pow(a, b);
+		}
+		
+		public double sin(double a)
+		{
+			return StrictMath.sin(a);
+		}
+	};
+	
+	private final String name;
+	private static final double quarterPi = Math.PI / 4.0, tanEighthPi = Math.sqrt(2.0) - 1.0;
+	private static final int maxIntegerExponent = 16;
+	
+	//Taylor series coefficients of the arc tangent in powers of the squared argument, highest
+	//power first.
+	private static final double[] atanCoefficients = {1.0 / 21.0, -1.0 / 19.0, 1.0 / 17.0,
+		-1.0 / 15.0, 1.0 / 13.0, -1.0 / 11.0, 1.0 / 9.0, -1.0 / 7.0, 1.0 / 5.0, -1.0 / 3.0, 1.0};
+	
+	//Constructor. Stores the tier's display name.
+	private MathProvider(String name)
+	{
+		this.name = name;
+	}
+	
+	//Returns the arc cosine of the given value.
+	public abstract double acos(double a);
+	
+	//Returns the arc tangent of the given value.
+	public abstract double atan(double a);
+	
+	//Returns the cosine of the given angle.
+	public abstract double cos(double a);
+	
+	//Returns the natural logarithm of the given value.
+	public abstract double log(double a);
+	
+	//Returns the first value raised to the power of the second value.
+	public abstract double pow(double a, double b);
+	
+	//Returns the sine of the given angle.
+	public abstract double sin(double a);
+	
+	//Returns the name of the tier.
+	public String toString()
+	{
+		return name;
+	}
+	
+	//Approximates the arc tangent. The argument is reduced to |t| <= tan(pi / 8) using
+	//atan(a) = pi / 2 - atan(1 / a) and atan(t) = pi / 4 + atan((t - 1) / (t + 1)), and the
+	//Taylor series is summed to the 21st power.
+	private static double fastAtan(double a)
+	{
+		double t = Math.abs(a), angle = 0.0;
+		boolean reciprocal = t > 1.0;
+		
+		if(reciprocal)
+		{
+			t = 1.0 / t;
+		}
+		
+		if(t > tanEighthPi)
+		{
+			t = (t - 1.0) / (t + 1.0);
+			angle = quarterPi;
+		}
+		
+		angle += t * polynomial(atanCoefficients, t * t);
+		
+		if(reciprocal)
+		{
+			angle = 2.0 * quarterPi - angle;
+		}
+		
+		return a < 0.0 ? -angle : angle;
+	}
+	
+	//Returns the first value raised to the power of the second value. Small integer exponents are
+	//multiplied out by repeated squaring.
+	private static double fastPow(double a, double b)
+	{
+		if(b == Math.rint(b) && Math.abs(b) <= maxIntegerExponent)
+		{
+			double result = 1.0, base = a;
+			
+			for(int n = (int) Math.abs(b); n > 0; n >>= 1)
+			{
+				if((n & 1) == 1)
+				{
+					result *= base;
+				}
+				
+				base *= base;
+			}
+			
+			return b < 0.0 ? 1.0 / result : result;
+		}
+		
+		return Math.pow(a, b);
+	}
+	
+	//Evaluates the polynomial with the given coefficients, highest power first, using Horner's
+	//method.
+	private static double polynomial(double[] coefficients, double x)
+	{
+		double result = 0.0;
+		
+		for(int i = 0; i < coefficients.length; i++)
+		{
+			result = result * x + coefficients[i];
+		}
+		
+		return result;
+	}
+}
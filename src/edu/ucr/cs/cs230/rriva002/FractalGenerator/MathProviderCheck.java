@@ -0,0 +1,137 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.util.Random;
+
+//Checks that each math tier's functions are within the error bounds stated in MathProvider, by
+//comparing them with java.lang.StrictMath at random arguments. FAST's arc cosine and arc tangent
+//are checked against an absolute error, its integer powers against a relative error, and every
+//other function against an error in units in the last place (ulps). Since StrictMath and Math are
+//each within 1 ulp of the exact result, they can differ from each other by 2 ulps. Exits with
+//status 1 if any bound is exceeded.
+public class MathProviderCheck
+{
+	private static final String[] functions = {"acos", "atan", "cos", "log", "pow", "integer pow",
+		"sin"};
+	private static final double maxUlps = 2.0, maxFastAcosError = 2e-10;
+	private static final double maxFastAtanError = 1e-10, maxFastPowError = 2e-15;
+	private static final int maxIntegerExponent = 16;
+	
+	//Checks every function of every tier at the given number of arguments (default 1000000).
+	public static void main(String[] args)
+	{
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		boolean failed = false;
+		
+		for(MathProvider math : MathProvider.values())
+		{
+			for(String function : functions)
+			{
+				failed |= !check(math, function, samples);
+			}
+		}
+		
+		if(failed)
+		{
+			System.exit(1);
+		}
+	}
+	
+	//Checks the given function of the given tier at the given number of random arguments, prints
+	//its largest error and returns whether it's within the stated bound.
+	private static boolean check(MathProvider math, String function, int samples)
+	{
+		Random random = new Random(1);
+		double a, b, result, expected, error, maxError = 0.0, bound = maxUlps;
+		String unit = "ulps";
+		boolean passed;
+		
+		if(math == MathProvider.FAST && function.equals("acos"))
+		{
+			bound = maxFastAcosError;
+			unit = "absolute";
+		}
+		else if(math == MathProvider.FAST && function.equals("atan"))
+		{
+			bound = maxFastAtanError;
+			unit = "absolute";
+		}
+		else if(math == MathProvider.FAST && function.equals("integer pow"))
+		{
+			bound = maxFastPowError;
+			unit = "relative";
+		}
+		
+		for(int i = 0; i < samples; i++)
+		{
+			a = random.nextDouble();
+			b = random.nextDouble();
+			
+			//Pick arguments over each function's domain. The arc tangent's arguments cover every
+			//magnitude, and the powers' bases are in (0, 2].
+			if(function.equals("acos"))
+			{
+				a = a * 2.0 - 1.0;
+				result = math.acos(a);
+				expected = StrictMath.acos(a);
+			}
+			else if(function.equals("atan"))
+			{
+				a = Math.tan((a - 0.5) * Math.PI);
+				result = math.atan(a);
+				expected = StrictMath.atan(a);
+			}
+			else if(function.equals("cos"))
+			{
+				a = (a * 2.0 - 1.0) * 2.0 * Math.PI;
+				result = math.cos(a);
+				expected = StrictMath.cos(a);
+			}
+			else if(function.equals("log"))
+			{
+				a = (1.0 - a) * 100.0;
+				result = math.log(a);
+				expected = StrictMath.log(a);
+			}
+			else if(function.equals("pow"))
+			{
+				a = (1.0 - a) * 2.0;
+				b = (b * 2.0 - 1.0) * maxIntegerExponent;
+				result = math.pow(a, b);
+				expected = StrictMath.pow(a, b);
+			}
+			else if(function.equals("integer pow"))
+			{
+				a = (1.0 - a) * 2.0;
+				b = Math.floor(b * (2 * maxIntegerExponent + 1)) - maxIntegerExponent;
+				result = math.pow(a, b);
+				expected = StrictMath.pow(a, b);
+			}
+			else
+			{
+				a = (a * 2.0 - 1.0) * 2.0 * Math.PI;
+				result = math.sin(a);
+				expected = StrictMath.sin(a);
+			}
+			
+			error = Math.abs(result - expected);
+			
+			if(unit.equals("ulps"))
+			{
+				error /= Math.ulp(expected);
+			}
+			else if(unit.equals("relative"))
+			{
+				error /= Math.abs(expected);
+			}
+			
+			//A result that isn't a number is never within the bound.
+			maxError = Double.isNaN(error) ? Double.POSITIVE_INFINITY : Math.max(maxError, error);
+		}
+		
+		passed = maxError <= bound;
+		
+		System.out.println(String.format("%s %s: max %s error %.3g (bound %.3g) %s", math,
+			function, unit, maxError, bound, passed ? "OK" : "FAILED"));
+		return passed;
+	}
+}
@@ -0,0 +1,118 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+//Measures how fast pixels are written to the camera's image in three ways: through
+//BufferedImage.setRGB one pixel at a time, through Camera.colorPixel one pixel at a time (which
+//writes to the image's pixel array directly), and into a tile's buffer that Camera.colorPixels
+//copies into the image a row at a time, as workers do. Every pixel of the image is written in
+//tiles, and the three images are checked against each other. Each measurement is the fastest of
+//several rounds, after rounds that warm up the JIT compiler. Exits with status 1 if the images
+//differ.
+public class PixelWriteBenchmark
+{
+	private static final String[] methods = {"setRGB", "colorPixel", "colorPixels"};
+	private static final int warmUpRounds = 10, rounds = 10;
+	
+	//Runs the benchmark on an image of the given width and height with tiles of the given size
+	//(default 1280, 960 and 16).
+	public static void main(String[] args)
+	{
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 1280;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 960;
+		int tileSize = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		Camera camera = new Camera(new Vector3(0.0, -2.0, 0.0), new Vector3(0.0, 1.0, 0.0),
+			new Vector3(0.0, 0.0, 1.0), width, height);
+		int[] expected = null, pixels;
+		boolean failed = false;
+		
+		for(int method = 0; method < methods.length; method++)
+		{
+			pixels = benchmark(camera, method, tileSize);
+			
+			if(expected == null)
+			{
+				expected = pixels;
+			}
+			else if(!Arrays.equals(pixels, expected))
+			{
+				System.out.println(methods[method] + " wrote a different image than " +
+					methods[0] + ".");
+				
+				failed = true;
+			}
+		}
+		
+		if(failed)
+		{
+			System.exit(1);
+		}
+	}
+	
+	//Writes every pixel of the camera's image in the given way (an index into the methods) in
+	//tiles of the given size, prints the time per pixel and returns the image's pixels.
+	private static int[] benchmark(Camera camera, int method, int tileSize)
+	{
+		BufferedImage image = camera.getImage();
+		int width = camera.getWidth(), height = camera.getHeight();
+		int[] tile = new int[tileSize * tileSize];
+		long time = Long.MAX_VALUE, start;
+		
+		for(int round = 0; round < warmUpRounds + rounds; round++)
+		{
+			start = System.nanoTime();
+			
+			for(int tileY = 0; tileY < height; tileY += tileSize)
+			{
+				for(int tileX = 0; tileX < width; tileX += tileSize)
+				{
+					writeTile(camera, image, method, tileX, tileY,
+						Math.min(tileSize, width - tileX), Math.min(tileSize, height - tileY), tile,
+						round);
+				}
+			}
+			
+			time = round < warmUpRounds ? time : Math.min(time, System.nanoTime() - start);
+		}
+		
+		System.out.println(String.format("%s: %.2f ns per pixel", methods[method],
+			(double) time / (width * height)));
+		return image.getRGB(0, 0, width, height, null, 0, width);
+	}
+	
+	//Writes the pixels of the tile with the given corner and dimensions in the given way. Each
+	//pixel's color depends on its position and the round, so every round writes new colors.
+	private static void writeTile(Camera camera, BufferedImage image, int method, int tileX,
+		int tileY, int tileWidth, int tileHeight, int[] tile, int round)
+	{
+		int color;
+		
+		for(int y = tileY; y < tileY + tileHeight; y++)
+		{
+			for(int x = tileX; x < tileX + tileWidth; x++)
+			{
+				color = (x * 31 + y * 17 + round) & 0xFFFFFF;
+				
+				//The y coordinate is reversed for setRGB since y = 0 is at the top of the image.
+				if(method == 0)
+				{
+					image.setRGB(x, camera.getHeight() - y - 1, color);
+				}
+				else if(method == 1)
+				{
+					camera.colorPixel(x, y, color);
+				}
+				else
+				{
+					tile[(y - tileY) * tileWidth + x - tileX] = color;
+				}
+			}
+		}
+		
+		if(method == 2)
+		{
+			camera.colorPixels(tileX, tileY, tileWidth, tileHeight, tile);
+		}
+	}
+}
@@ -3,6 +3,10 @@ package edu.ucr.cs.cs230.rriva002.FractalGenerator;
 public class Ray
 {
 	private Vector3 endpoint, direction;
+	private DistanceGrid distanceGrid;
+	private double relaxationFactor = 1.0, startDistance = 0.0, pixelFootprint = 0.0;
+	private double cameraDistance = 0.0;
+	private int steps = 0;
 	private boolean hit = false;
 	
 	//Constructor. Stores the endpoint and normalized direction.
@@ -24,38 +28,109 @@ public class Ray
 		return endpoint;
 	}
 	
+	//Returns the number of distance estimates performed by the last march.
+	public int getSteps()
+	{
+		return steps;
+	}
+	
 	//Returns whether the ray hit something. 
 	public boolean intersected()
 	{
 		return hit;
 	}
 	
-	//Returns the ray's point of intersection.
+	//Returns the ray's point of intersection. The hit threshold is the minimum distance or the
+	//pixel footprint at the current distance from the camera, whichever is larger.
 	public Vector3 march(double minDistance, double maxDistance, Fractal fractal)
 	{
-		double distance, totalDistance = 0.0;
-		Vector3 position;
+		double distance, previousDistance = 0.0, step = 0.0, totalDistance = startDistance;
+		double relaxation = relaxationFactor, threshold, bound;
+		double x = endpoint.getX(), y = endpoint.getY(), z = endpoint.getZ();
+		double directionX = direction.getX(), directionY = direction.getY();
+		double directionZ = direction.getZ();
 		
 		hit = false;
+		steps = 0;
 		
 		//Run until the maximum distance is reached.
 		while(totalDistance < maxDistance)
 		{
+			//Step by the distance grid's lower bound instead while it's at least half a cell wide,
+			//as long as the last step's unbounding sphere overlaps it.
+			if(distanceGrid != null)
+			{
+				bound = distanceGrid.lowerBound(x + directionX * totalDistance,
+					y + directionY * totalDistance, z + directionZ * totalDistance);
+				
+				if(bound >= 0.5 * distanceGrid.getCellSize() && bound + previousDistance >= step)
+				{
+					previousDistance = bound;
+					step = bound;
+					totalDistance += step;
+					continue;
+				}
+			}
+			
 			//Estimate the distance to the fractal from the current position along the ray.
-			position = Vector3.add(endpoint, Vector3.scale(direction, totalDistance));
-			distance = fractal.estimateDistance(position);
+			distance = fractal.estimateDistance(x + directionX * totalDistance,
+				y + directionY * totalDistance, z + directionZ * totalDistance);
+			threshold = Math.max(minDistance, pixelFootprint * (cameraDistance + totalDistance));
+			steps++;
 			
-			//Record a hit and break if the step distance is below the minimum distance threshold.
-			if(distance < minDistance)
+			//If this step's unbounding sphere doesn't overlap the previous one, the relaxed step
+			//may have skipped over the surface. Go back and take a normal step from the previous
+			//position instead, and stop relaxing for the rest of the march.
+			if(relaxation > 1.0 && distance + previousDistance < step)
+			{
+				totalDistance += previousDistance - step;
+				relaxation = 1.0;
+				continue;
+			}
+			
+			//Record a hit and break if the step distance is below the hit threshold.
+			if(distance < threshold)
 			{
 				hit = true;
 				break;
 			}
 			
-			//Add the step distance to the total distance.
-			totalDistance += distance;
+			//Add the (possibly relaxed) step distance to the total distance.
+			previousDistance = distance;
+			step = distance * relaxation;
+			totalDistance += step;
 		}
 		
 		return Vector3.add(endpoint, Vector3.scale(direction, totalDistance));
 	}
+	
+	//Sets the grid of lower bounds on the distance to the fractal that the ray steps by when it's
+	//far from the fractal. The grid may be null if every step estimates the distance.
+	public void setDistanceGrid(DistanceGrid distanceGrid)
+	{
+		this.distanceGrid = distanceGrid;
+	}
+	
+	//Sets the pixel footprint per unit of distance from the camera, which makes the hit threshold
+	//grow with distance. The camera distance is the distance from the camera to the ray's
+	//endpoint. A footprint of 0 uses a constant hit threshold.
+	public void setPixelFootprint(double pixelFootprint, double cameraDistance)
+	{
+		this.pixelFootprint = pixelFootprint;
+		this.cameraDistance = cameraDistance;
+	}
+	
+	//Sets the over-relaxation factor. Each step is the estimated distance multiplied by this
+	//factor, which should be in the range [1, 2). A factor of 1 is plain sphere tracing.
+	public void setRelaxationFactor(double relaxationFactor)
+	{
+		this.relaxationFactor = relaxationFactor;
+	}
+	
+	//Sets the distance along the ray at which marching starts. The ray must not be able to hit
+	//anything before this distance.
+	public void setStartDistance(double startDistance)
+	{
+		this.startDistance = startDistance;
+	}
 }
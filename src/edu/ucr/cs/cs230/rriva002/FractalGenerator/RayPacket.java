@@ -0,0 +1,247 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+public class RayPacket
+{
+	private double[] endpointX, endpointY, endpointZ, directionX, directionY, directionZ;
+	private double[] distances, maxDistances, cameraDistances, previousDistances, stepDistances;
+	private double[] relaxations;
+	private double[] x, y, z, estimates;
+	private double[][] scratch;
+	private double relaxationFactor = 1.0, pixelFootprint = 0.0;
+	private RenderSettings.DistanceEngine distanceEngine = RenderSettings.DistanceEngine.SCALAR;
+	private DistanceGrid distanceGrid;
+	private long steps = 0;
+	private int[] lanes;
+	private boolean[] alive, hit;
+	private int size = 0;
+	
+	//Constructor. Creates an empty packet that can hold the given number of rays.
+	public RayPacket(int capacity)
+	{
+		endpointX = new double[capacity];
+		endpointY = new double[capacity];
+		endpointZ = new double[capacity];
+		directionX = new double[capacity];
+		directionY = new double[capacity];
+		directionZ = new double[capacity];
+		distances = new double[capacity];
+		maxDistances = new double[capacity];
+		cameraDistances = new double[capacity];
+		previousDistances = new double[capacity];
+		stepDistances = new double[capacity];
+		relaxations = new double[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		z = new double[capacity];
+		estimates = new double[capacity];
+		scratch = new double[Fractal.batchScratchArrays][capacity];
+		lanes = new int[capacity];
+		alive = new boolean[capacity];
+		hit = new boolean[capacity];
+	}
+	
+	//Adds a ray starting at the camera with the given direction to the packet and returns its
+	//index. The ray is marched from the start distance up to the maximum distance.
+	public int add(Vector3 endpoint, Vector3 direction, double startDistance, double maxDistance)
+	{
+		return add(endpoint, direction, startDistance, maxDistance, 0.0);
+	}
+	
+	//Adds a ray with the given endpoint and direction to the packet and returns its index. The ray
+	//is marched from the start distance up to the maximum distance. The camera distance is the
+	//distance from the camera to the ray's endpoint.
+	public int add(Vector3 endpoint, Vector3 direction, double startDistance, double maxDistance,
+		double cameraDistance)
+	{
+		direction = Vector3.normalize(direction);
+		endpointX[size] = endpoint.getX();
+		endpointY[size] = endpoint.getY();
+		endpointZ[size] = endpoint.getZ();
+		directionX[size] = direction.getX();
+		directionY[size] = direction.getY();
+		directionZ[size] = direction.getZ();
+		distances[size] = startDistance;
+		maxDistances[size] = maxDistance;
+		cameraDistances[size] = cameraDistance;
+		alive[size] = startDistance < maxDistance;
+		hit[size] = false;
+		return size++;
+	}
+	
+	//Removes all rays from the packet.
+	public void clear()
+	{
+		size = 0;
+	}
+	
+	//Returns the direction of the specified ray.
+	public Vector3 getDirection(int ray)
+	{
+		return new Vector3(directionX[ray], directionY[ray], directionZ[ray]);
+	}
+	
+	//Returns the specified ray's point of intersection.
+	public Vector3 getIntersection(int ray)
+	{
+		double t = distances[ray];
+		
+		return new Vector3(endpointX[ray] + directionX[ray] * t,
+			endpointY[ray] + directionY[ray] * t, endpointZ[ray] + directionZ[ray] * t);
+	}
+	
+	//Returns the number of distance estimates performed by the last march.
+	public long getSteps()
+	{
+		return steps;
+	}
+	
+	//Returns whether the specified ray hit something.
+	public boolean intersected(int ray)
+	{
+		return hit[ray];
+	}
+	
+	//Returns whether the packet can't hold any more rays.
+	public boolean isFull()
+	{
+		return size == lanes.length;
+	}
+	
+	//Marches every ray in the packet. The distances for all rays that are still marching are
+	//estimated together in each step. Each ray is marched the same way as Ray.march, including
+	//the hit threshold.
+	public void march(double minDistance, Fractal fractal)
+	{
+		int count, lane;
+		double distance, previousDistance, threshold, bound;
+		
+		steps = 0;
+		
+		for(int i = 0; i < size; i++)
+		{
+			previousDistances[i] = 0.0;
+			stepDistances[i] = 0.0;
+			relaxations[i] = relaxationFactor;
+		}
+		
+		while(true)
+		{
+			count = 0;
+			
+			//Gather the current position of each ray that's still marching. Rays first step by the
+			//distance grid's lower bound while it's at least half a cell wide, as long as the
+			//last step's unbounding sphere overlaps it.
+			for(int i = 0; i < size; i++)
+			{
+				while(alive[i] && distanceGrid != null)
+				{
+					bound = distanceGrid.lowerBound(endpointX[i] + directionX[i] * distances[i],
+						endpointY[i] + directionY[i] * distances[i],
+						endpointZ[i] + directionZ[i] * distances[i]);
+					
+					if(bound < 0.5 * distanceGrid.getCellSize() ||
+						bound + previousDistances[i] < stepDistances[i])
+					{
+						break;
+					}
+					
+					previousDistances[i] = bound;
+					stepDistances[i] = bound;
+					distances[i] += bound;
+					alive[i] = distances[i] < maxDistances[i];
+				}
+				
+				if(alive[i])
+				{
+					lanes[count] = i;
+					x[count] = endpointX[i] + directionX[i] * distances[i];
+					y[count] = endpointY[i] + directionY[i] * distances[i];
+					z[count] = endpointZ[i] + directionZ[i] * distances[i];
+					count++;
+				}
+			}
+			
+			//Stop when every ray has hit something or reached its maximum distance.
+			if(count == 0)
+			{
+				break;
+			}
+			
+			//Estimate the distances with the batch estimator or one at a time.
+			if(distanceEngine == RenderSettings.DistanceEngine.AUTO_VECTORIZED)
+			{
+				fractal.estimateDistance(x, y, z, estimates, scratch, count);
+			}
+			else
+			{
+				for(int i = 0; i < count; i++)
+				{
+					estimates[i] = fractal.estimateDistance(x[i], y[i], z[i]);
+				}
+			}
+			
+			steps += count;
+			
+			for(int i = 0; i < count; i++)
+			{
+				lane = lanes[i];
+				distance = estimates[i];
+				previousDistance = previousDistances[lane];
+				threshold = pixelFootprint * (cameraDistances[lane] + distances[lane]);
+				
+				if(relaxations[lane] > 1.0 && distance + previousDistance < stepDistances[lane])
+				{
+					//Go back and take a normal step if the relaxed step may have skipped over the
+					//surface.
+					distances[lane] += previousDistance - stepDistances[lane];
+					relaxations[lane] = 1.0;
+				}
+				else if(distance < Math.max(minDistance, threshold))
+				{
+					//Record a hit if the step distance is below the hit threshold.
+					hit[lane] = true;
+					alive[lane] = false;
+				}
+				else
+				{
+					previousDistances[lane] = distance;
+					stepDistances[lane] = distance * relaxations[lane];
+					distances[lane] += stepDistances[lane];
+					alive[lane] = distances[lane] < maxDistances[lane];
+				}
+			}
+		}
+	}
+	
+	//Sets the grid of lower bounds on the distance to the fractal that the packet's rays step by
+	//when they're far from the fractal. The grid may be null if every step estimates the distance.
+	public void setDistanceGrid(DistanceGrid distanceGrid)
+	{
+		this.distanceGrid = distanceGrid;
+	}
+	
+	//Sets how the distances for the rays in the packet are estimated.
+	public void setDistanceEngine(RenderSettings.DistanceEngine distanceEngine)
+	{
+		this.distanceEngine = distanceEngine;
+	}
+	
+	//Sets the pixel footprint per unit of distance from the camera used for every ray in the
+	//packet. A footprint of 0 uses a constant hit threshold.
+	public void setPixelFootprint(double pixelFootprint)
+	{
+		this.pixelFootprint = pixelFootprint;
+	}
+	
+	//Sets the over-relaxation factor used for every ray in the packet.
+	public void setRelaxationFactor(double relaxationFactor)
+	{
+		this.relaxationFactor = relaxationFactor;
+	}
+	
+	//Returns the number of rays in the packet.
+	public int size()
+	{
+		return size;
+	}
+}
@@ -0,0 +1,416 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+public class RenderSettings
+{
+	public static enum DistanceEngine{SCALAR, AUTO_VECTORIZED};
+	public static enum NormalEstimator{CENTRAL, TETRAHEDRAL};
+	public static enum ReprojectionMode{OFF, DISTANCES, COLORS};
+	private DistanceEngine distanceEngine = DistanceEngine.SCALAR;
+	private NormalEstimator normalEstimator = NormalEstimator.CENTRAL;
+	private MathProvider mathProvider = MathProvider.EXACT;
+	private ReprojectionMode reprojectionMode = ReprojectionMode.OFF;
+	private double relaxationFactor = 1.0, footprintScale = 0.0, edgeThreshold = 8.0;
+	private int antialiasingFactor = 1, beamBlockSize = 4, packetSize = 0, tileSize = 16;
+	private int threads = 0, shadowCacheSize = 1 << 20, gBufferSize = 1 << 21;
+	private int distanceGridSize = 1 << 21;
+	private boolean costMapEnabled = false, progressive = false, adaptive = false;
+	private boolean shadowCacheEnabled = false, relightingEnabled = false;
+	private boolean distanceGridEnabled = false;
+	
+	//Constructor. Creates the default settings.
+	public RenderSettings()
+	{
+		
+	}
+	
+	//Constructor. Creates a copy of the given settings.
+	public RenderSettings(RenderSettings settings)
+	{
+		this.distanceEngine = settings.distanceEngine;
+		this.normalEstimator = settings.normalEstimator;
+		this.mathProvider = settings.mathProvider;
+		this.reprojectionMode = settings.reprojectionMode;
+		this.relaxationFactor = settings.relaxationFactor;
+		this.footprintScale = settings.footprintScale;
+		this.edgeThreshold = settings.edgeThreshold;
+		this.antialiasingFactor = settings.antialiasingFactor;
+		this.beamBlockSize = settings.beamBlockSize;
+		this.packetSize = settings.packetSize;
+		this.tileSize = settings.tileSize;
+		this.threads = settings.threads;
+		this.shadowCacheSize = settings.shadowCacheSize;
+		this.gBufferSize = settings.gBufferSize;
+		this.distanceGridSize = settings.distanceGridSize;
+		this.costMapEnabled = settings.costMapEnabled;
+		this.progressive = settings.progressive;
+		this.adaptive = settings.adaptive;
+		this.shadowCacheEnabled = settings.shadowCacheEnabled;
+		this.relightingEnabled = settings.relightingEnabled;
+		this.distanceGridEnabled = settings.distanceGridEnabled;
+	}
+	
+	//Returns the antialiasing factor (the number of samples along each side of a pixel).
+	public int getAntialiasingFactor()
+	{
+		return antialiasingFactor;
+	}
+	
+	//Returns the width and height in pixels of the blocks marched as a single cone before the
+	//pixel rays are marched. A size of 1 or less disables beam marching.
+	public int getBeamBlockSize()
+	{
+		return beamBlockSize;
+	}
+	
+	//Returns how ray packets estimate distances: one position at a time (SCALAR, the default) or
+	//with the fractal's batch estimator (AUTO_VECTORIZED), which applies each iteration to every
+	//position in a plain loop that the JIT compiler may auto-vectorize. No explicit vector API is
+	//used. Whether the batch estimator is faster depends on the fractal and the JVM (the
+	//Mandelbox's can be slower), which DistanceBenchmark measures.
+	public DistanceEngine getDistanceEngine()
+	{
+		return distanceEngine;
+	}
+	
+	//Returns the most cells that the distance grid can have. The grid has the largest number of
+	//cells along each side whose cube fits. Each cell takes 4 bytes.
+	public int getDistanceGridSize()
+	{
+		return distanceGridSize;
+	}
+	
+	//Returns the largest difference in any color channel (from 0 to 255) between neighboring pixels
+	//that adaptive antialiasing doesn't supersample. Reprojected colors are only reused from
+	//pixels that differ by no more than this.
+	public double getEdgeThreshold()
+	{
+		return edgeThreshold;
+	}
+	
+	//Returns the number of projected pixel widths that the hit threshold grows to at a distance.
+	//Smaller values give more detail in the distance. A scale of 0 uses a constant hit threshold.
+	public double getFootprintScale()
+	{
+		return footprintScale;
+	}
+	
+	//Returns the most samples (pixels times antialiasing samples per pixel) that the G-buffer
+	//holds. Larger renders don't keep one. Each sample takes 57 bytes.
+	public int getGBufferSize()
+	{
+		return gBufferSize;
+	}
+	
+	//Returns the tier of math functions used by the distance estimators and shading.
+	public MathProvider getMathProvider()
+	{
+		return mathProvider;
+	}
+	
+	//Returns how surface normals are estimated: from central differences along each axis (CENTRAL,
+	//6 distance estimates) or from the corners of a tetrahedron (TETRAHEDRAL, 4 distance
+	//estimates).
+	public NormalEstimator getNormalEstimator()
+	{
+		return normalEstimator;
+	}
+	
+	//Returns the number of rays marched together in each packet. A size of 0 marches each ray on
+	//its own.
+	public int getPacketSize()
+	{
+		return packetSize;
+	}
+	
+	//Returns the over-relaxation factor used when marching rays.
+	public double getRelaxationFactor()
+	{
+		return relaxationFactor;
+	}
+	
+	//Returns how the last frame is reused after the camera moves: not at all (OFF), by starting
+	//rays where they reach the last frame's hits and skipping rays that stay in front of them
+	//(DISTANCES), or by also reusing the colors of pixels whose rays reach the last frame's
+	//surface (COLORS). Silhouettes and thin features may be off by about a pixel. A reused color
+	//is only kept if a short march shows that the ray hits the surface, but shadow edges finer
+	//than the last frame's pixels can still be lost, so COLORS is less accurate than DISTANCES.
+	//With a distance estimate that can overestimate, like the Mandelbulb's, rays that start near
+	//the surface can also stop on thin filaments that a march from the camera steps over.
+	public ReprojectionMode getReprojectionMode()
+	{
+		return reprojectionMode;
+	}
+	
+	//Returns the most shadow visibilities that the shadow cache holds before it's emptied.
+	public int getShadowCacheSize()
+	{
+		return shadowCacheSize;
+	}
+	
+	//Returns the number of threads in the render pool. A count of 0 uses one thread per
+	//processor.
+	public int getThreads()
+	{
+		return threads;
+	}
+	
+	//Returns the width and height in pixels of the tiles that the image is split into for
+	//rendering.
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+	
+	//Returns whether antialiasing is adaptive: one sample is rendered for every pixel, and only the
+	//pixels on edges (those that differ from a neighbor in color, depth or whether they hit the
+	//fractal) are supersampled.
+	public boolean isAdaptive()
+	{
+		return adaptive;
+	}
+	
+	//Returns whether the cost of rendering each pixel is recorded in a cost map. Pixels are
+	//rendered one at a time while recording, even if a packet size is set.
+	public boolean isCostMapEnabled()
+	{
+		return costMapEnabled;
+	}
+	
+	//Returns whether rays step by a grid of lower bounds on the distance to the fractal while
+	//they're far from it, rather than estimating the distance at every step. The grid is built
+	//when a render starts if the fractal or its parameters have changed. Hits may move by up to the
+	//hit threshold, like with any change to the steps taken.
+	public boolean isDistanceGridEnabled()
+	{
+		return distanceGridEnabled;
+	}
+	
+	//Returns whether each sample's point of intersection, normal and ambient openness are kept in
+	//a G-buffer, so that the next render only shades them again if the camera, fractal and
+	//settings that affect the rays from the camera haven't changed (e.g. when only the lights
+	//have). Adaptive renders don't keep a G-buffer, and colors aren't reprojected while one is
+	//kept.
+	public boolean isRelightingEnabled()
+	{
+		return relightingEnabled;
+	}
+	
+	//Returns whether the visibility of each point light from the fractal's surface is cached and
+	//reused by nearby pixels and later renders. Visibility is shared by points up to a pixel apart,
+	//so shadow edges may shift by up to a pixel.
+	public boolean isShadowCacheEnabled()
+	{
+		return shadowCacheEnabled;
+	}
+	
+	//Returns whether images are rendered progressively: one sample for every 8th pixel, then every
+	//4th, 2nd and every pixel, and finally the antialiasing samples. The final image is the same
+	//as a non-progressive render.
+	public boolean isProgressive()
+	{
+		return progressive;
+	}
+	
+	//Sets whether antialiasing is adaptive.
+	public void setAdaptive(boolean adaptive)
+	{
+		this.adaptive = adaptive;
+	}
+	
+	//Sets the antialiasing factor. Returns true if successful.
+	public boolean setAntialiasingFactor(int antialiasingFactor)
+	{
+		//The antialiasing factor must be 1 or more.
+		if(antialiasingFactor < 1)
+		{
+			return false;
+		}
+		
+		this.antialiasingFactor = antialiasingFactor;
+		return true;
+	}
+	
+	//Sets whether the cost of rendering each pixel is recorded.
+	public void setCostMapEnabled(boolean costMapEnabled)
+	{
+		this.costMapEnabled = costMapEnabled;
+	}
+	
+	//Sets the beam marching block size. Returns true if successful.
+	public boolean setBeamBlockSize(int beamBlockSize)
+	{
+		//The block size can't be negative.
+		if(beamBlockSize < 0)
+		{
+			return false;
+		}
+		
+		this.beamBlockSize = beamBlockSize;
+		return true;
+	}
+	
+	//Sets how ray packets estimate distances.
+	public void setDistanceEngine(DistanceEngine distanceEngine)
+	{
+		this.distanceEngine = distanceEngine;
+	}
+	
+	//Sets whether rays step by the distance grid.
+	public void setDistanceGridEnabled(boolean distanceGridEnabled)
+	{
+		this.distanceGridEnabled = distanceGridEnabled;
+	}
+	
+	//Sets the distance grid size. Returns true if successful.
+	public boolean setDistanceGridSize(int distanceGridSize)
+	{
+		//The distance grid must have at least 1 cell.
+		if(distanceGridSize < 1)
+		{
+			return false;
+		}
+		
+		this.distanceGridSize = distanceGridSize;
+		return true;
+	}
+	
+	//Sets the edge threshold for adaptive antialiasing. Returns true if successful.
+	public boolean setEdgeThreshold(double edgeThreshold)
+	{
+		//The edge threshold can't be negative.
+		if(edgeThreshold < 0.0)
+		{
+			return false;
+		}
+		
+		this.edgeThreshold = edgeThreshold;
+		return true;
+	}
+	
+	//Sets the pixel footprint scale. Returns true if successful.
+	public boolean setFootprintScale(double footprintScale)
+	{
+		//The footprint scale can't be negative.
+		if(footprintScale < 0.0)
+		{
+			return false;
+		}
+		
+		this.footprintScale = footprintScale;
+		return true;
+	}
+	
+	//Sets the G-buffer size. Returns true if successful.
+	public boolean setGBufferSize(int gBufferSize)
+	{
+		//The G-buffer size must be 1 or more.
+		if(gBufferSize < 1)
+		{
+			return false;
+		}
+		
+		this.gBufferSize = gBufferSize;
+		return true;
+	}
+	
+	//Sets the tier of math functions used by the distance estimators and shading.
+	public void setMathProvider(MathProvider mathProvider)
+	{
+		this.mathProvider = mathProvider;
+	}
+	
+	//Sets how surface normals are estimated.
+	public void setNormalEstimator(NormalEstimator normalEstimator)
+	{
+		this.normalEstimator = normalEstimator;
+	}
+	
+	//Sets whether images are rendered progressively.
+	public void setProgressive(boolean progressive)
+	{
+		this.progressive = progressive;
+	}
+	
+	//Sets the ray packet size. Returns true if successful.
+	public boolean setPacketSize(int packetSize)
+	{
+		//The packet size must be 0 or between 8 and 64.
+		if(packetSize != 0 && (packetSize < 8 || packetSize > 64))
+		{
+			return false;
+		}
+		
+		this.packetSize = packetSize;
+		return true;
+	}
+	
+	//Sets the over-relaxation factor. Returns true if successful.
+	public boolean setRelaxationFactor(double relaxationFactor)
+	{
+		//The relaxation factor must be in the range [1, 2).
+		if(relaxationFactor < 1.0 || relaxationFactor >= 2.0)
+		{
+			return false;
+		}
+		
+		this.relaxationFactor = relaxationFactor;
+		return true;
+	}
+	
+	//Sets how the last frame is reused after the camera moves.
+	public void setReprojectionMode(ReprojectionMode reprojectionMode)
+	{
+		this.reprojectionMode = reprojectionMode;
+	}
+	
+	//Sets whether the G-buffer is kept for relighting.
+	public void setRelightingEnabled(boolean relightingEnabled)
+	{
+		this.relightingEnabled = relightingEnabled;
+	}
+	
+	//Sets whether shadow visibilities are cached.
+	public void setShadowCacheEnabled(boolean shadowCacheEnabled)
+	{
+		this.shadowCacheEnabled = shadowCacheEnabled;
+	}
+	
+	//Sets the shadow cache size. Returns true if successful.
+	public boolean setShadowCacheSize(int shadowCacheSize)
+	{
+		//The shadow cache size must be 1 or more.
+		if(shadowCacheSize < 1)
+		{
+			return false;
+		}
+		
+		this.shadowCacheSize = shadowCacheSize;
+		return true;
+	}
+	
+	//Sets the number of render threads. Returns true if successful.
+	public boolean setThreads(int threads)
+	{
+		//The thread count can't be negative.
+		if(threads < 0)
+		{
+			return false;
+		}
+		
+		this.threads = threads;
+		return true;
+	}
+	
+	//Sets the tile size. Returns true if successful.
+	public boolean setTileSize(int tileSize)
+	{
+		//The tile size must be 1 or more.
+		if(tileSize < 1)
+		{
+			return false;
+		}
+		
+		this.tileSize = tileSize;
+		return true;
+	}
+}
@@ -0,0 +1,390 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//Keeps the distances from the camera to the fractal and the colors of the last frame rendered, so
+//that the next frame can reuse them after the camera moves. A ray in the new frame is walked
+//through the last frame's view without estimating any distances: every point in front of the
+//last frame's hits is empty, so the ray can start marching where it reaches them, or be skipped if
+//it stays in front of them until it leaves the bounding volume. Shading doesn't depend on the
+//view, so a ray that reaches the surface seen by the last frame can also take its color. Pixels
+//that were reused rather than marched aren't reused again, so errors don't build up over frames.
+//The last frame is only read while a frame is rendered, so it's safe to use from several threads.
+public class Reprojection
+{
+	private final int width, height;
+	private final CacheKey key = new CacheKey();
+	private Vector3 position, direction, horizontal, vertical;
+	private double pixelWidth, freeRadius;
+	private double[] depths;
+	private double[][] levels;
+	private int[] levelWidths;
+	private int[] colors;
+	private boolean[] reused, nextReused;
+	private static final double slack = 2.0, depthThreshold = 0.05;
+	private static final int maxSteps = 256;
+	
+	//Constructor. Creates an empty reprojection for frames with the given dimensions in pixels.
+	public Reprojection(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		this.nextReused = new boolean[width * height];
+	}
+	
+	//Starts recording a new frame. Pixels marked as reused from here on aren't reused by the frame
+	//after it.
+	public void begin()
+	{
+		nextReused = new boolean[width * height];
+	}
+	
+	//Forgets the last frame.
+	public void clear()
+	{
+		depths = null;
+		colors = null;
+		reused = null;
+		levels = null;
+	}
+	
+	//Returns the color of the last frame's surface at the given distance along the given ray
+	//(with a normalized direction), or -1 if the point isn't on a continuous, smooth part of the
+	//surface that was marched in the last frame. The colors of the four nearest pixels are
+	//interpolated, so they must not differ by more than the given threshold in any color channel.
+	public int color(Vector3 origin, Vector3 direction, double distance, double threshold)
+	{
+		double[] point = new double[3];
+		double nearest, farthest, u, v;
+		int x, y, i, color = 0;
+		
+		if(depths == null || !project(origin, direction, distance, point))
+		{
+			return -1;
+		}
+		
+		x = Math.min((int) point[0], width - 2);
+		y = Math.min((int) point[1], height - 2);
+		i = y * width + x;
+		nearest = nearestDepth(point[0], point[1]);
+		farthest = Math.max(Math.max(depths[i], depths[i + 1]),
+			Math.max(depths[i + width], depths[i + width + 1]));
+		
+		//The four pixels must have been marched, hit the fractal at about the same distance and
+		//be about the distance that the walk stops short of the surface from the point.
+		if(Double.isInfinite(farthest) || farthest - nearest > depthThreshold * nearest ||
+			reused[i] || reused[i + 1] || reused[i + width] || reused[i + width + 1] ||
+			nearest - point[2] > (slack + 2.0) * pixelWidth * nearest)
+		{
+			return -1;
+		}
+		
+		u = point[0] - x;
+		v = point[1] - y;
+		
+		//Interpolate each channel bilinearly if the pixels' colors are close enough.
+		for(int shift = 0; shift < 24; shift += 8)
+		{
+			int a = (colors[i] >> shift) & 0xFF, b = (colors[i + 1] >> shift) & 0xFF;
+			int c = (colors[i + width] >> shift) & 0xFF;
+			int d = (colors[i + width + 1] >> shift) & 0xFF;
+			
+			if(Math.max(Math.max(a, b), Math.max(c, d)) - Math.min(Math.min(a, b), Math.min(c, d)) >
+				threshold)
+			{
+				return -1;
+			}
+			
+			color |= (int) Math.round((1.0 - v) * ((1.0 - u) * a + u * b) +
+				v * ((1.0 - u) * c + u * d)) << shift;
+		}
+		
+		return color;
+	}
+	
+	//Returns how far beyond the given distance along a ray, where its walk stopped, the surface
+	//that the last frame saw can be while its color is still reused.
+	public double getSurfaceWindow(double distance)
+	{
+		return ((slack + 2.0) * pixelWidth + depthThreshold) * distance;
+	}
+	
+	//Returns whether there's a frame to reuse.
+	public boolean isEmpty()
+	{
+		return depths == null;
+	}
+	
+	//Marks the given pixel of the frame being rendered as reused rather than marched.
+	public void markReused(int x, int y)
+	{
+		nextReused[y * width + x] = true;
+	}
+	
+	//Walks the given ray (with a normalized direction) through the last frame from the start
+	//distance and returns the distance up to which it's known to be empty, which is the start
+	//distance if nothing is known. Returns infinity if it's empty up to the end distance. Points
+	//within the last camera's distance from the fractal are empty, and so are points in front of
+	//the last frame's hits, less a margin of a few pixel widths. Each step keeps the ray's
+	//projection within a window of cells on a level of the pyramid of nearest distances and in
+	//front of them. The level gets coarser after steps that the window's hits didn't limit and
+	//finer when the ray gets close to them, so steps are long in empty space and short near the
+	//surface.
+	public double march(Vector3 origin, Vector3 direction, double start, double end)
+	{
+		double[] point = new double[3], next = new double[3], swap;
+		double distance, step, free, moved, nextDistance;
+		int level = 0, steps = 0;
+		
+		if(depths == null)
+		{
+			return start;
+		}
+		
+		distance = Math.max(start, sphereExit(origin, direction, start));
+		
+		if(distance >= end)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+		
+		if(!project(origin, direction, distance, point))
+		{
+			return distance;
+		}
+		
+		step = pixelWidth * point[2];
+		
+		while(steps++ < maxSteps)
+		{
+			free = freeDistance(level, point);
+			
+			//Use a finer level if the ray is within a pixel width of the margin in front of the
+			//window's hits, and stop if it's already on the finest level.
+			if(free < pixelWidth * point[2])
+			{
+				if(level == 0)
+				{
+					return distance;
+				}
+				
+				level--;
+				continue;
+			}
+			
+			nextDistance = Math.min(distance + Math.min(step, free), end);
+			moved = Double.POSITIVE_INFINITY;
+			
+			if(project(origin, direction, nextDistance, next))
+			{
+				moved = Math.max(Math.abs(next[0] - point[0]), Math.abs(next[1] - point[1]));
+			}
+			
+			//Take a shorter step if the ray leaves the view or the window, and stop if the step
+			//would be shorter than a pixel width.
+			if(moved > (double) (1 << level))
+			{
+				step = (nextDistance - distance) *
+					(Double.isInfinite(moved) ? 0.5 : 0.9 * (double) (1 << level) / moved);
+				
+				if(step < pixelWidth * point[2])
+				{
+					return distance;
+				}
+				
+				continue;
+			}
+			
+			if(nextDistance >= end)
+			{
+				return Double.POSITIVE_INFINITY;
+			}
+			
+			//Try a coarser level next unless the step was limited by the window's hits.
+			if(step < free)
+			{
+				level = Math.min(level + 1, levels.length - 1);
+			}
+			
+			step = 2.0 * (nextDistance - distance);
+			distance = nextDistance;
+			swap = point;
+			point = next;
+			next = swap;
+		}
+		
+		return distance;
+	}
+	
+	//Returns the distance that a point projected into the last frame can move before it reaches
+	//the margin in front of the hits in the window of cells around it on the given level of the
+	//pyramid, which is negative if it's behind the margin. The window is the point's cell and the
+	//cells next to it, so the point's projection can move by the width of a cell within it.
+	private double freeDistance(int level, double[] point)
+	{
+		int x = Math.min((int) point[0], width - 2) >> level;
+		int y = Math.min((int) point[1], height - 2) >> level;
+		int levelWidth = levelWidths[level], levelHeight = levels[level].length / levelWidth;
+		double nearest = Double.POSITIVE_INFINITY;
+		
+		for(int i = Math.max(y - 1, 0); i <= Math.min(y + 1, levelHeight - 1); i++)
+		{
+			for(int j = Math.max(x - 1, 0); j <= Math.min(x + 1, levelWidth - 1); j++)
+			{
+				nearest = Math.min(nearest, levels[level][i * levelWidth + j]);
+			}
+		}
+		
+		//Points in front of cells that all missed can move anywhere within the window.
+		if(Double.isInfinite(nearest))
+		{
+			return nearest;
+		}
+		
+		return nearest - slack * pixelWidth * nearest - point[2];
+	}
+	
+	//Returns the nearest of the last frame's distances at the four pixels around the given
+	//position in the image.
+	private double nearestDepth(double u, double v)
+	{
+		int x = Math.min((int) u, width - 2), y = Math.min((int) v, height - 2);
+		int i = y * width + x;
+		
+		return Math.min(Math.min(depths[i], depths[i + 1]),
+			Math.min(depths[i + width], depths[i + width + 1]));
+	}
+	
+	//Projects the point at the given distance along the given ray into the last frame, storing its
+	//pixel coordinates (indexed from the bottom row, like the distances) and its distance from
+	//the last frame's camera in the given array. Returns false if it's outside the last frame's
+	//view.
+	private boolean project(Vector3 origin, Vector3 direction, double distance, double[] point)
+	{
+		double x = origin.getX() + direction.getX() * distance - position.getX();
+		double y = origin.getY() + direction.getY() * distance - position.getY();
+		double z = origin.getZ() + direction.getZ() * distance - position.getZ();
+		double depth = x * this.direction.getX() + y * this.direction.getY() +
+			z * this.direction.getZ();
+		double r = x * horizontal.getX() + y * horizontal.getY() + z * horizontal.getZ();
+		double s = x * vertical.getX() + y * vertical.getY() + z * vertical.getZ();
+		
+		if(depth <= 0.0)
+		{
+			return false;
+		}
+		
+		//Convert the position on the image plane to pixel coordinates, where pixel centers are at
+		//whole numbers.
+		point[0] = r / depth / pixelWidth + 0.5 * (double) width - 0.5;
+		point[1] = s / depth / pixelWidth + 0.5 * (double) height - 0.5;
+		point[2] = Math.sqrt(x * x + y * y + z * z);
+		
+		return point[0] >= 0.0 && point[0] <= (double) (width - 1) && point[1] >= 0.0 &&
+			point[1] <= (double) (height - 1);
+	}
+	
+	//Returns the distance along the given ray (with a normalized direction) at which it leaves
+	//the sphere around the last camera with a radius of the camera's distance from the fractal,
+	//if the point at the start distance is inside it. Otherwise, returns the start distance.
+	private double sphereExit(Vector3 origin, Vector3 direction, double start)
+	{
+		Vector3 offset = Vector3.subtract(origin, position);
+		Vector3 startOffset = Vector3.add(offset, Vector3.scale(direction, start));
+		double b = Vector3.dot(offset, direction);
+		double discriminant = b * b - Vector3.dot(offset, offset) + freeRadius * freeRadius;
+		
+		if(Vector3.dot(startOffset, startOffset) >= freeRadius * freeRadius)
+		{
+			return start;
+		}
+		
+		return -b + Math.sqrt(discriminant);
+	}
+	
+	//Builds the pyramid of nearest distances from the last frame's distances. Each cell of the
+	//finest level has the nearest of the four pixels around the points between them (0 if any of
+	//them were reused, so walks stop there), and each cell of the next level has the nearest of
+	//four cells of the level before it.
+	private void buildPyramid()
+	{
+		List<double[]> pyramid = new ArrayList<double[]>();
+		List<Integer> pyramidWidths = new ArrayList<Integer>();
+		int levelWidth = width - 1, levelHeight = height - 1, i;
+		double[] level = new double[levelWidth * levelHeight], coarser;
+		
+		for(int y = 0; y < levelHeight; y++)
+		{
+			for(int x = 0; x < levelWidth; x++)
+			{
+				i = y * width + x;
+				level[y * levelWidth + x] = reused[i] || reused[i + 1] || reused[i + width] ||
+					reused[i + width + 1] ? 0.0 : nearestDepth(x, y);
+			}
+		}
+		
+		pyramid.add(level);
+		pyramidWidths.add(levelWidth);
+		
+		while(levelWidth > 1 || levelHeight > 1)
+		{
+			coarser = new double[((levelWidth + 1) / 2) * ((levelHeight + 1) / 2)];
+			
+			Arrays.fill(coarser, Double.POSITIVE_INFINITY);
+			
+			for(int y = 0; y < levelHeight; y++)
+			{
+				for(int x = 0; x < levelWidth; x++)
+				{
+					i = (y / 2) * ((levelWidth + 1) / 2) + x / 2;
+					coarser[i] = Math.min(coarser[i], level[y * levelWidth + x]);
+				}
+			}
+			
+			level = coarser;
+			levelWidth = (levelWidth + 1) / 2;
+			levelHeight = (levelHeight + 1) / 2;
+			
+			pyramid.add(level);
+			pyramidWidths.add(levelWidth);
+		}
+		
+		levels = pyramid.toArray(new double[pyramid.size()][]);
+		levelWidths = new int[pyramidWidths.size()];
+		
+		for(int j = 0; j < levelWidths.length; j++)
+		{
+			levelWidths[j] = pyramidWidths.get(j);
+		}
+	}
+	
+	//Keeps the given camera's view, its image and the given distances from the camera to the
+	//fractal (infinity for misses, indexed by row, then column) as the last frame.
+	public void store(Camera camera, double[] depths)
+	{
+		position = camera.getPosition();
+		direction = camera.getDirection();
+		horizontal = Vector3.normalize(Vector3.cross(direction, camera.getUp()));
+		vertical = Vector3.normalize(Vector3.cross(horizontal, direction));
+		pixelWidth = camera.getPixelFootprint();
+		colors = new int[width * height];
+		reused = nextReused;
+		freeRadius = key.getFractal().estimateDistance(position);
+		this.depths = depths;
+		
+		camera.getPixels(0, 0, width, height, colors);
+		buildPyramid();
+	}
+	
+	//Forgets the last frame if the fractal, its parameters or the lights have changed since the
+	//last call.
+	public void validate(Fractal fractal, List<Light> lights, Light ambientLight)
+	{
+		if(key.update(fractal, lights, ambientLight))
+		{
+			clear();
+		}
+	}
+}
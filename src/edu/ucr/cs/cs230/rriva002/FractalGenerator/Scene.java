@@ -0,0 +1,444 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+//A scene for the batch renderer, read from a properties file. The keys are:
+//  fractal              Mandelbulb or Mandelbox (required)
+//  parameter.<name>     A fractal parameter, named without spaces (e.g. parameter.InnerRadius)
+//  width, height        The image's dimensions in pixels (default 800 by 600)
+//  antialiasing         The antialiasing factor (default 1)
+//  threads              The number of render threads, or 0 for one per processor (default 0)
+//  relaxation           The over-relaxation factor (default 1)
+//  math                 The math tier: Exact, Fast or Strict (default Exact)
+//  normals              The normal estimator: Central or Tetrahedral (default Central)
+//  packet, beam         The ray packet size and beam block size (defaults as in RenderSettings)
+//  camera.position      x, y, z (default: the fractal's default camera position)
+//  camera.direction     x, y, z (default: toward the origin)
+//  camera.up            x, y, z (default: 0, 0, 1)
+//  ambient              red, green, blue, brightness
+//  light.<n>            x, y, z, red, green, blue, brightness; replaces the default lights
+//  output               The image file, relative to the scene file (default: the scene's name as a
+//                       PNG). Its extension gives the image format.
+//Unknown keys and invalid values are reported as errors.
+public class Scene
+{
+	private final String name, fractalName;
+	private final Properties properties = new Properties();
+	private final File output;
+	private final int width, height;
+	private static final String parameterPrefix = "parameter.", lightPrefix = "light.";
+	private static final String[] keys = {"fractal", "width", "height", "antialiasing", "threads",
+		"relaxation", "math", "normals", "packet", "beam", "camera.position", "camera.direction",
+		"camera.up", "ambient", "output"};
+	
+	//Constructor. Reads the scene from the given file. Throws an IllegalArgumentException if it
+	//has an unknown key or a missing or invalid value.
+	public Scene(File file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		String fileName = file.getName();
+		
+		this.name = fileName;
+		
+		try
+		{
+			properties.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		
+		checkKeys();
+		
+		this.fractalName = properties.getProperty("fractal");
+		this.width = getInt("width", 800, 1);
+		this.height = getInt("height", 600, 1);
+		
+		if(fractalName == null)
+		{
+			throw new IllegalArgumentException("No fractal given");
+		}
+		
+		//Name the image after the scene file if no output file is given.
+		if(fileName.lastIndexOf('.') > 0)
+		{
+			fileName = fileName.substring(0, fileName.lastIndexOf('.'));
+		}
+		
+		this.output = new File(file.getAbsoluteFile().getParentFile(),
+			properties.getProperty("output", fileName + ".png").trim());
+	}
+	
+	//Sets the renderer's camera and lights according to the scene. The renderer should already
+	//have the scene's fractal, and its default camera and lights are kept unless the scene
+	//replaces them.
+	public void apply(FractalRenderer renderer)
+	{
+		Vector3 position = getVector("camera.position", renderer.getCameraPosition());
+		Vector3 direction = getCameraDirection(position), up = getCameraUp();
+		List<Integer> lightNumbers = getLightNumbers();
+		List<Light> lights = new ArrayList<Light>();
+		double[] values;
+		
+		//The up vector can't be parallel to the direction.
+		if(hasCamera() && !renderer.setCamera(position, direction, up))
+		{
+			throw new IllegalArgumentException("The camera's direction and up vector can't be " +
+				"zero or parallel");
+		}
+		
+		if(properties.getProperty("ambient") != null)
+		{
+			values = getNumbers("ambient", 4);
+			
+			checkColor("ambient", values, 0);
+			renderer.setAmbientLight(new Light(new Vector3(0.0, 0.0, 0.0), values[0], values[1],
+				values[2], values[3]));
+		}
+		
+		//Replace the default point lights if any are given, in the order of their numbers.
+		for(int number : lightNumbers)
+		{
+			String key = lightPrefix + number;
+			
+			values = getNumbers(key, 7);
+			
+			checkColor(key, values, 3);
+			lights.add(new Light(new Vector3(values[0], values[1], values[2]), values[3],
+				values[4], values[5], values[6]));
+		}
+		
+		if(!lights.isEmpty())
+		{
+			renderer.setLights(lights);
+		}
+	}
+	
+	//Checks that the colors at the given index of the given values are in the range [0, 1] and the
+	//brightness after them is 0 or more.
+	private void checkColor(String key, double[] values, int index)
+	{
+		for(int i = index; i < index + 3; i++)
+		{
+			//Colors must be between 0 and 1.
+			if(values[i] < 0.0 || values[i] > 1.0)
+			{
+				throw new IllegalArgumentException(key + ": Colors must be in the range [0, 1].");
+			}
+		}
+		
+		//The brightness must be 0 or more.
+		if(values[index + 3] < 0.0)
+		{
+			throw new IllegalArgumentException(key + ": Brightness must be 0 or more.");
+		}
+	}
+	
+	//Checks that every key in the scene is known.
+	private void checkKeys()
+	{
+		List<String> known = new ArrayList<String>();
+		
+		Collections.addAll(known, keys);
+		
+		for(String key : properties.stringPropertyNames())
+		{
+			if(!known.contains(key) && !key.startsWith(parameterPrefix) &&
+				!key.startsWith(lightPrefix))
+			{
+				throw new IllegalArgumentException("Unknown key " + key);
+			}
+		}
+	}
+	
+	//Returns a new instance of the scene's fractal with its parameters set.
+	public Fractal createFractal()
+	{
+		Fractal fractal = null;
+		
+		for(Fractal candidate : Main.createFractals())
+		{
+			if(candidate.toString().equalsIgnoreCase(fractalName.trim()))
+			{
+				fractal = candidate;
+			}
+		}
+		
+		if(fractal == null)
+		{
+			throw new IllegalArgumentException("Unknown fractal " + fractalName);
+		}
+		
+		//Check that each parameter in the scene belongs to the fractal.
+		for(String key : properties.stringPropertyNames())
+		{
+			if(key.startsWith(parameterPrefix) && findParameter(fractal, key) == null)
+			{
+				throw new IllegalArgumentException("Unknown parameter " + key + " for " + fractal);
+			}
+		}
+		
+		//Set the parameters in the order the fractal lists them.
+		for(String[] parameter : fractal.getParameters())
+		{
+			for(String key : properties.stringPropertyNames())
+			{
+				if(parameter[0].equals(findParameter(fractal, key)) &&
+					!fractal.setParameter(parameter[0], getNumbers(key, 1)[0]))
+				{
+					throw new IllegalArgumentException("Invalid value for " + key);
+				}
+			}
+		}
+		
+		return fractal;
+	}
+	
+	//Returns the name of the fractal's parameter that the given key sets, or null if it doesn't
+	//set one.
+	private String findParameter(Fractal fractal, String key)
+	{
+		for(String[] parameter : fractal.getParameters())
+		{
+			if(key.equalsIgnoreCase(parameterPrefix + parameter[0].replace(" ", "")))
+			{
+				return parameter[0];
+			}
+		}
+		
+		return null;
+	}
+	
+	//Returns the camera's direction, or the direction from the given camera position toward the
+	//origin if the scene doesn't give one.
+	public Vector3 getCameraDirection(Vector3 position)
+	{
+		return getVector("camera.direction", Vector3.scale(position, -1.0));
+	}
+	
+	//Returns the camera's position, or the given fractal's default camera position if the scene
+	//doesn't give one.
+	public Vector3 getCameraPosition(Fractal fractal)
+	{
+		return getVector("camera.position", fractal.getDefaultCameraPosition());
+	}
+	
+	//Returns the camera's up vector, or the z axis if the scene doesn't give one.
+	public Vector3 getCameraUp()
+	{
+		return getVector("camera.up", new Vector3(0.0, 0.0, 1.0));
+	}
+	
+	//Returns the image's height in pixels.
+	public int getHeight()
+	{
+		return height;
+	}
+	
+	//Returns the value of the given key as an integer that's at least the given minimum, or the
+	//default value if the scene doesn't have the key.
+	private int getInt(String key, int defaultValue, int min)
+	{
+		int value;
+		
+		if(properties.getProperty(key) == null)
+		{
+			return defaultValue;
+		}
+		
+		try
+		{
+			value = Integer.parseInt(properties.getProperty(key).trim());
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException(key + ": Not an integer");
+		}
+		
+		if(value < min)
+		{
+			throw new IllegalArgumentException(key + ": Must be " + min + " or more");
+		}
+		
+		return value;
+	}
+	
+	//Returns the numbers of the scene's point lights in increasing order.
+	private List<Integer> getLightNumbers()
+	{
+		List<Integer> numbers = new ArrayList<Integer>();
+		
+		for(String key : properties.stringPropertyNames())
+		{
+			if(key.startsWith(lightPrefix))
+			{
+				try
+				{
+					numbers.add(Integer.parseInt(key.substring(lightPrefix.length())));
+				}
+				catch(NumberFormatException e)
+				{
+					throw new IllegalArgumentException("Unknown key " + key);
+				}
+			}
+		}
+		
+		Collections.sort(numbers);
+		return numbers;
+	}
+	
+	//Returns the scene's file name.
+	public String getName()
+	{
+		return name;
+	}
+	
+	//Returns the given number of comma-separated numbers in the value of the given key.
+	private double[] getNumbers(String key, int count)
+	{
+		String[] parts = properties.getProperty(key).split(",");
+		double[] values = new double[count];
+		
+		if(parts.length != count)
+		{
+			throw new IllegalArgumentException(key + ": Expected " + count + " values");
+		}
+		
+		for(int i = 0; i < count; i++)
+		{
+			try
+			{
+				values[i] = Double.parseDouble(parts[i].trim());
+			}
+			catch(NumberFormatException e)
+			{
+				throw new IllegalArgumentException(key + ": Not a number: " + parts[i].trim());
+			}
+			
+			if(Double.isNaN(values[i]) || Double.isInfinite(values[i]))
+			{
+				throw new IllegalArgumentException(key + ": Not a finite number");
+			}
+		}
+		
+		return values;
+	}
+	
+	//Returns the file to write the image to.
+	public File getOutput()
+	{
+		return output;
+	}
+	
+	//Returns the render settings given by the scene, with the defaults for the rest.
+	public RenderSettings getSettings()
+	{
+		RenderSettings settings = new RenderSettings();
+		String math = properties.getProperty("math"), normals = properties.getProperty("normals");
+		MathProvider mathProvider = null;
+		RenderSettings.NormalEstimator normalEstimator = null;
+		
+		if(!settings.setAntialiasingFactor(getInt("antialiasing", 1, 1)))
+		{
+			throw new IllegalArgumentException("antialiasing: Invalid value");
+		}
+		
+		if(!settings.setThreads(getInt("threads", settings.getThreads(), 0)))
+		{
+			throw new IllegalArgumentException("threads: Invalid value");
+		}
+		
+		if(!settings.setPacketSize(getInt("packet", settings.getPacketSize(), 0)))
+		{
+			throw new IllegalArgumentException("packet: Invalid value");
+		}
+		
+		if(!settings.setBeamBlockSize(getInt("beam", settings.getBeamBlockSize(), 0)))
+		{
+			throw new IllegalArgumentException("beam: Invalid value");
+		}
+		
+		if(properties.getProperty("relaxation") != null &&
+			!settings.setRelaxationFactor(getNumbers("relaxation", 1)[0]))
+		{
+			throw new IllegalArgumentException("relaxation: Must be in the range [1, 2)");
+		}
+		
+		if(math != null)
+		{
+			for(MathProvider candidate : MathProvider.values())
+			{
+				if(candidate.toString().equalsIgnoreCase(math.trim()) ||
+					candidate.name().equalsIgnoreCase(math.trim()))
+				{
+					mathProvider = candidate;
+				}
+			}
+			
+			if(mathProvider == null)
+			{
+				throw new IllegalArgumentException("math: Unknown math tier " + math);
+			}
+			
+			settings.setMathProvider(mathProvider);
+		}
+		
+		if(normals != null)
+		{
+			for(RenderSettings.NormalEstimator candidate : RenderSettings.NormalEstimator.values())
+			{
+				if(candidate.name().equalsIgnoreCase(normals.trim()))
+				{
+					normalEstimator = candidate;
+				}
+			}
+			
+			if(normalEstimator == null)
+			{
+				throw new IllegalArgumentException("normals: Unknown normal estimator " + normals);
+			}
+			
+			settings.setNormalEstimator(normalEstimator);
+		}
+		
+		return settings;
+	}
+	
+	//Returns the value of the given key as a vector, or the default vector if the scene doesn't
+	//have the key.
+	private Vector3 getVector(String key, Vector3 defaultValue)
+	{
+		double[] values;
+		
+		if(properties.getProperty(key) == null)
+		{
+			return defaultValue;
+		}
+		
+		values = getNumbers(key, 3);
+		
+		return new Vector3(values[0], values[1], values[2]);
+	}
+	
+	//Returns whether the scene sets any of the camera's vectors.
+	private boolean hasCamera()
+	{
+		return properties.getProperty("camera.position") != null ||
+			properties.getProperty("camera.direction") != null ||
+			properties.getProperty("camera.up") != null;
+	}
+	
+	//Returns the image's width in pixels.
+	public int getWidth()
+	{
+		return width;
+	}
+}
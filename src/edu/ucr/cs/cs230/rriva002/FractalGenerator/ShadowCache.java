@@ -0,0 +1,142 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Caches whether points on a fractal's surface can see each point light, so that shadow rays don't
+//need to be marched again for nearby points or in later renders. Points are grouped into cubic
+//cells of the power of 2 nearest below the spacing between pixels at the point, so neighboring
+//pixels share cells. The cache is safe to use from several threads.
+public class ShadowCache
+{
+	private final ConcurrentHashMap<Cell, Boolean> visibilities;
+	private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+	private final int capacity;
+	private final CacheKey key = new CacheKey();
+	
+	//Constructor. Creates an empty cache that holds up to the given number of visibilities.
+	public ShadowCache(int capacity)
+	{
+		this.capacity = capacity;
+		this.visibilities = new ConcurrentHashMap<Cell, Boolean>(Math.min(capacity, 1 << 16));
+	}
+	
+	//Empties the cache.
+	public void clear()
+	{
+		visibilities.clear();
+	}
+	
+	//Returns whether the given light was visible from the cell containing the given position on
+	//the surface, or null if it isn't cached. The spacing is the distance between pixels at the
+	//position.
+	public Boolean get(Vector3 position, double spacing, int light)
+	{
+		Boolean visible = visibilities.get(new Cell(position, spacing, light));
+		
+		if(visible == null)
+		{
+			misses.incrementAndGet();
+		}
+		else
+		{
+			hits.incrementAndGet();
+		}
+		
+		return visible;
+	}
+	
+	//Returns the number of visibilities the cache can hold.
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	//Returns the number of lookups that found a cached visibility.
+	public long getHits()
+	{
+		return hits.get();
+	}
+	
+	//Returns the number of lookups that didn't find a cached visibility.
+	public long getMisses()
+	{
+		return misses.get();
+	}
+	
+	//Stores whether the given light is visible from the cell containing the given position. The
+	//cache is emptied first if it's full.
+	public void put(Vector3 position, double spacing, int light, boolean visible)
+	{
+		if(visibilities.size() >= capacity)
+		{
+			visibilities.clear();
+		}
+		
+		visibilities.put(new Cell(position, spacing, light), visible);
+	}
+	
+	//Resets the hit and miss counts.
+	public void resetCounts()
+	{
+		hits.set(0);
+		misses.set(0);
+	}
+	
+	//Returns the number of cached visibilities.
+	public int size()
+	{
+		return visibilities.size();
+	}
+	
+	//Empties the cache if the fractal, its parameters or the point lights have changed since the
+	//last call. The ambient light doesn't cast shadows, so it isn't compared.
+	public void validate(Fractal fractal, List<Light> lights)
+	{
+		if(key.update(fractal, lights, null))
+		{
+			clear();
+		}
+	}
+	
+	//The key of a cached visibility: a cell's size and coordinates and the light's index.
+	private static class Cell
+	{
+		private final long x, y, z;
+		private final int level, light;
+		
+		//Constructor. Finds the cell of the size for the given pixel spacing that contains the
+		//given position.
+		public Cell(Vector3 position, double spacing, int light)
+		{
+			this.level = Math.getExponent(spacing);
+			this.x = (long) Math.floor(Math.scalb(position.getX(), -level));
+			this.y = (long) Math.floor(Math.scalb(position.getY(), -level));
+			this.z = (long) Math.floor(Math.scalb(position.getZ(), -level));
+			this.light = light;
+		}
+		
+		//Returns whether the given object is the same cell for the same light.
+		public boolean equals(Object object)
+		{
+			if(!(object instanceof Cell))
+			{
+				return false;
+			}
+			
+			Cell cell = (Cell) object;
+			
+			return x == cell.x && y == cell.y && z == cell.z && level == cell.level &&
+				light == cell.light;
+		}
+		
+		//Returns a hash code for the cell.
+		public int hashCode()
+		{
+			long hash = (((x * 31L + y) * 31L + z) * 31L + level) * 31L + light;
+			
+			return (int) (hash ^ (hash >>> 32));
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package edu.ucr.cs.cs230.rriva002.FractalGenerator;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Renders a range of tiles on a fork/join pool. Ranges are split in half until each task has a
+//single tile, so threads that run out of work can steal the unstarted halves of other threads'
+//ranges. The number of tiles rendered is counted as they finish.
+public class TileTask extends RecursiveAction
+{
+	private static final long serialVersionUID = 1L;
+	private Worker[] tiles;
+	private AtomicInteger renderedTiles;
+	private int start, end;
+	
+	//Constructor. Stores the workers for the tiles from the start index up to (but not including)
+	//the end index and the counter to add the rendered tiles to.
+	public TileTask(Worker[] tiles, int start, int end, AtomicInteger renderedTiles)
+	{
+		this.tiles = tiles;
+		this.start = start;
+		this.end = end;
+		this.renderedTiles = renderedTiles;
+	}
+	
+	//Renders the tile if there's only one, otherwise splits the range in half and renders both
+	//halves.
+	protected void compute()
+	{
+		int middle = (start + end) >>> 1;
+		
+		if(end - start > 1)
+		{
+			invokeAll(new TileTask(tiles, start, middle, renderedTiles),
+				new TileTask(tiles, middle, end, renderedTiles));
+		}
+		else if(end > start)
+		{
+			tiles[start].run();
+			renderedTiles.incrementAndGet();
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package edu.ucr.cs.cs230.rriva002.FractalGenerator;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class Worker implements Runnable
@@ -8,143 +9,1043 @@ public class Worker implements Runnable
 	private Camera camera;
 	private Fractal fractal;
 	private Light ambientLight;
-	private double maxDistance;
-	private int antialiasingFactor, id, threads;
+	private RenderSettings.DistanceEngine distanceEngine;
+	private RenderSettings.NormalEstimator normalEstimator;
+	private MathProvider mathProvider;
+	private CostMap costMap;
+	private ShadowCache shadowCache;
+	private Reprojection reprojection;
+	private GBuffer gBuffer;
+	private DistanceGrid distanceGrid;
+	private CancellationToken token;
+	private double[][] beamDistances;
+	private Vector3 intersection, normal;
+	private double maxDistance, relaxationFactor, pixelFootprint, edgeThreshold, depth, openness;
+	private Thread thread;
+	private int[] samples, pixels;
+	private double[] depths;
+	private boolean[] edges;
+	private long distanceEstimates = 0, primarySteps = 0, shadowSteps = 0, raysMarched = 0;
+	private long time = 0;
+	private int antialiasingFactor, beamBlockSize, packetSize, tileX, tileY, tileWidth, tileHeight;
+	private int step = 0, coarsestStep = 0, reusedColor = -1;
+	private boolean reuseColors = false, relight = false;
 	
-	//Constructor. Stores values for rendering a fractal.
+	//Constructor. Stores values for rendering a tile of a fractal image with the given position
+	//and dimensions in pixels. The beam distances may be null if beam marching isn't being used,
+	//the cost map may be null if costs aren't being recorded and the shadow cache may be null if
+	//shadow visibilities aren't being cached.
 	public Worker(Camera camera, Fractal fractal, Light ambientLight, List<Light> lights,
-		int antialiasingFactor, int id, int threads)
+		RenderSettings settings, double[][] beamDistances, CostMap costMap,
+		ShadowCache shadowCache, int tileX, int tileY, int tileWidth, int tileHeight)
 	{
 		this.lights = lights;
 		this.camera = camera;
 		this.fractal = fractal;
 		this.ambientLight = ambientLight;
 		this.maxDistance = camera.getPosition().magnitude() + fractal.getMaxDistance();
-		this.antialiasingFactor = antialiasingFactor;
-		this.id = id;
-		this.threads = threads;
+		this.beamDistances = beamDistances;
+		this.costMap = costMap;
+		this.shadowCache = shadowCache;
+		this.distanceEngine = settings.getDistanceEngine();
+		this.normalEstimator = settings.getNormalEstimator();
+		this.mathProvider = settings.getMathProvider();
+		this.antialiasingFactor = settings.getAntialiasingFactor();
+		this.relaxationFactor = settings.getRelaxationFactor();
+		this.edgeThreshold = settings.getEdgeThreshold();
+		this.pixelFootprint = settings.getFootprintScale() * camera.getPixelFootprint();
+		this.beamBlockSize = settings.getBeamBlockSize();
+		this.packetSize = settings.getPacketSize();
+		this.tileX = tileX;
+		this.tileY = tileY;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
 	}
 	
 	//Returns the ambient intensity at the given position on the fractal's surface. Currently not
 	//calculated correctly; this very rough estimate is the product of how open the surface is to
 	//the environment and how close the normal is to pointing directly away from the origin.
-	private double ambientIntensity(Vector3 intersection, Vector3 gradient, Vector3 normal)
+	private double ambientIntensity(Vector3 intersection, double openness, Vector3 normal)
 	{
-		double openness = Math.min(1.0, gradient.magnitude() / fractal.getMinDistance());
 		double awayness = Math.max(0.0, Vector3.dot(normal, Vector3.normalize(intersection)));
 		return openness * awayness;
 	}
 	
+	//Returns how open the surface is to the environment (from 0 to 1) at a position on the
+	//fractal's surface with the given gradient.
+	private double openness(Vector3 gradient)
+	{
+		return Math.min(1.0, gradient.magnitude() / fractal.getMinDistance());
+	}
+	
+	//Returns the number of distance estimates performed by this worker.
+	public long getDistanceEstimates()
+	{
+		return distanceEstimates;
+	}
+	
+	//Returns the number of rays marched by this worker, from the camera and toward the lights.
+	public long getRays()
+	{
+		return raysMarched;
+	}
+	
+	//Returns the thread that rendered the worker's tile, or null if it hasn't been rendered.
+	public Thread getThread()
+	{
+		return thread;
+	}
+	
+	//Returns the time in nanoseconds taken to render the worker's tile.
+	public long getTime()
+	{
+		return time;
+	}
+	
 	//Returns the gradient at the given position on the fractal's surface.
 	private Vector3 gradient(Vector3 v, double distance)
 	{
-		Vector3 x = new Vector3(distance, 0.0, 0.0), y = new Vector3(0.0, distance, 0.0);
-		Vector3 z = new Vector3(0.0, 0.0, distance);
-		Vector3 vPlusX = Vector3.add(v, x), vMinusX = Vector3.subtract(v, x);
-		Vector3 vPlusY = Vector3.add(v, y), vMinusY = Vector3.subtract(v, y);
-		Vector3 vPlusZ = Vector3.add(v, z), vMinusZ = Vector3.subtract(v, z);
-		double normalX = fractal.estimateDistance(vPlusX) - fractal.estimateDistance(vMinusX);
-		double normalY = fractal.estimateDistance(vPlusY) - fractal.estimateDistance(vMinusY);
-		double normalZ = fractal.estimateDistance(vPlusZ) - fractal.estimateDistance(vMinusZ);
+		double x = v.getX(), y = v.getY(), z = v.getZ();
+		
+		if(normalEstimator == RenderSettings.NormalEstimator.TETRAHEDRAL)
+		{
+			return tetrahedralGradient(x, y, z, distance);
+		}
+		
+		double normalX = fractal.estimateDistance(x + distance, y, z) -
+			fractal.estimateDistance(x - distance, y, z);
+		double normalY = fractal.estimateDistance(x, y + distance, z) -
+			fractal.estimateDistance(x, y - distance, z);
+		double normalZ = fractal.estimateDistance(x, y, z + distance) -
+			fractal.estimateDistance(x, y, z - distance);
+		
+		distanceEstimates += 6;
 		return new Vector3(normalX, normalY, normalZ);
 	}
 	
-	//Renders a pixel.
+	//Returns the gradient at the given position from the distance estimates at the corners of a
+	//tetrahedron around it, (1, -1, -1), (-1, -1, 1), (-1, 1, -1) and (1, 1, 1) times the given
+	//distance. The corners' sum weighted by their estimates is twice the central difference, so
+	//it's halved to keep the gradient's magnitude the same for the ambient intensity.
+	private Vector3 tetrahedralGradient(double x, double y, double z, double distance)
+	{
+		double a = fractal.estimateDistance(x + distance, y - distance, z - distance);
+		double b = fractal.estimateDistance(x - distance, y - distance, z + distance);
+		double c = fractal.estimateDistance(x - distance, y + distance, z - distance);
+		double d = fractal.estimateDistance(x + distance, y + distance, z + distance);
+		
+		distanceEstimates += 4;
+		return new Vector3(0.5 * (a - b - c + d), 0.5 * (-a - b + c + d), 0.5 * (-a + b - c + d));
+	}
+	
+	//Adds the diffuse lighting from the given light to the given color values if the light is
+	//unobstructed.
+	private void addDiffuseColor(double[] colors, Vector3 normal, Vector3 lightDirection,
+		double lightDistance, Light light)
+	{
+		double[] diffuseFractalColor = fractal.getDiffuseColor(), lightColor = light.getColor();
+		double dot = Vector3.dot(normal, lightDirection);
+		double intensity = Math.max(0.0, dot) / mathProvider.pow(lightDistance, 2.0);
+		
+		for(int i = 0; i < colors.length; i++)
+		{
+			colors[i] += intensity * lightColor[i] * diffuseFractalColor[i];
+		}
+	}
+	
+	//Returns whether the light with the given index is visible from the given intersection at the
+	//given distance from the camera according to the shadow cache, or null if it isn't cached.
+	private Boolean cachedVisibility(Vector3 intersection, double cameraDistance, int light)
+	{
+		if(shadowCache == null)
+		{
+			return null;
+		}
+		
+		return shadowCache.get(intersection, camera.getPixelFootprint() * cameraDistance, light);
+	}
+	
+	//Stores whether the light with the given index is visible from the given intersection at the
+	//given distance from the camera in the shadow cache, if there is one.
+	private void cacheVisibility(Vector3 intersection, double cameraDistance, int light,
+		boolean visible)
+	{
+		if(shadowCache != null)
+		{
+			double spacing = camera.getPixelFootprint() * cameraDistance;
+			
+			shadowCache.put(intersection, spacing, light, visible);
+		}
+	}
+	
+	//Returns the color values at the given position on the fractal's surface due to the ambient
+	//light.
+	private double[] ambientColor(Vector3 intersection, double openness, Vector3 normal)
+	{
+		double[] colors = ambientLight.getColor(), ambientFractalColor = fractal.getAmbientColor();
+		double intensity = ambientIntensity(intersection, openness, normal);
+		
+		//Color the surface according to the ambient intensity and color.
+		for(int i = 0; i < colors.length; i++)
+		{
+			colors[i] *= intensity * ambientFractalColor[i];
+		}
+		
+		return colors;
+	}
+	
+	//Returns the given maximum marching distance limited to where a ray leaves the fractal's
+	//bounding volume, given the bounds returned by Fractal.clip. Returns 0 if the ray misses it.
+	private double clip(double[] bounds, double maxDistance)
+	{
+		return bounds == null ? 0.0 : Math.min(maxDistance, bounds[1]);
+	}
+	
+	//Returns the given color values as an RGB color.
+	private int color(double[] colors)
+	{
+		int color = 0;
+		
+		for(int i = 0; i < colors.length; i++)
+		{
+			color += (int) Math.round((double) 0xFF * Math.min(1.0, colors[i])) << 16 - 8 * i;
+		}
+		
+		return color;
+	}
+	
+	//Colors the given pixel with the average of the subpixel colors' components.
+	private void colorPixel(int x, int y, double red, double green, double blue)
+	{
+		double samples = Math.pow((double) antialiasingFactor, 2.0);
+		
+		red = Math.round(red / samples);
+		green = Math.round(green / samples);
+		blue = Math.round(blue / samples);
+		
+		setPixel(x, y, ((int) red << 16) + ((int) green << 8) + (int) blue);
+	}
+	
+	//Returns whether the given pixel is rendered in the current progressive pass: it's on the
+	//pass's grid of every step-th pixel but not on the previous pass's coarser grid.
+	private boolean inPass(int x, int y)
+	{
+		boolean rendered = step < coarsestStep && x % (2 * step) == 0 && y % (2 * step) == 0;
+		
+		return x % step == 0 && y % step == 0 && !rendered;
+	}
+	
+	//Returns the distance along the normal to offset a shadow ray's endpoint from a point of
+	//intersection at the given distance from the camera so that the ray doesn't immediately hit
+	//the surface it starts from.
+	private double shadowOffset(double cameraDistance)
+	{
+		return Math.max(fractal.getMinDistance(), 2.0 * pixelFootprint * cameraDistance);
+	}
+	
+	//Sets the token that cancels the worker's render. The worker stops between rows once it's
+	//cancelled.
+	public void setCancellationToken(CancellationToken token)
+	{
+		this.token = token;
+	}
+	
+	//Sets the grid of lower bounds on the distance to the fractal that rays step by when they're
+	//far from the fractal. The grid may be null if every step estimates the distance.
+	public void setDistanceGrid(DistanceGrid distanceGrid)
+	{
+		this.distanceGrid = distanceGrid;
+	}
+	
+	//Sets the G-buffer that each sample's point of intersection, normal and ambient openness are
+	//stored in, or that the samples are shaded again from instead of being rendered if relighting.
+	//The G-buffer may be null if it isn't being kept.
+	public void setGBuffer(GBuffer gBuffer, boolean relight)
+	{
+		this.gBuffer = gBuffer;
+		this.relight = relight;
+	}
+	
+	//Sets the reprojection of the last frame that rays are walked through before they're marched,
+	//and whether the colors of pixels that reach the last frame's surface are reused. The
+	//reprojection may be null if the last frame isn't being reused.
+	public void setReprojection(Reprojection reprojection, boolean reuseColors)
+	{
+		this.reprojection = reprojection;
+		this.reuseColors = reuseColors;
+	}
+	
+	//Sets the worker to render one pass of a progressive or adaptive render, storing or reusing
+	//samples and their distances from the camera in the given arrays (indexed by row, then
+	//column). Passes with a step of 1 or more render one sample per pixel on a grid of every
+	//step-th pixel, starting with the coarsest step and halving it each pass. A step of 0 renders
+	//each pixel's antialiasing samples, or only those of edge pixels if the edges are given.
+	public void setPass(int[] samples, double[] depths, boolean[] edges, int step,
+		int coarsestStep)
+	{
+		this.samples = samples;
+		this.depths = depths;
+		this.edges = edges;
+		this.step = step;
+		this.coarsestStep = coarsestStep;
+	}
+	
+	//Returns the distance that rays through the given pixel can start marching from, which is
+	//infinity if the last frame shows that they miss the fractal. If the pixel's color can be
+	//reused from the last frame, it's kept as the reused color; otherwise the reused color is -1.
+	private double startDistance(int x, int y)
+	{
+		Vector3 position = camera.getPosition(), direction;
+		double startDistance = 0.0;
+		double[] bounds;
+		
+		reusedColor = -1;
+		
+		//Start the pixel's rays at the distance reached by the beam through its block.
+		if(beamDistances != null)
+		{
+			startDistance = beamDistances[y / beamBlockSize][x / beamBlockSize];
+		}
+		
+		if(reprojection == null || reprojection.isEmpty())
+		{
+			return startDistance;
+		}
+		
+		direction = Vector3.normalize(Vector3.subtract(camera.pixelPosition(x, y), position));
+		bounds = fractal.clip(position, direction);
+		
+		//Rays that miss the bounding volume don't march at all.
+		if(bounds == null)
+		{
+			return startDistance;
+		}
+		
+		//Walk the ray through the pixel's center through the last frame, and reuse the last
+		//frame's color if it reaches the surface. Pixels that aren't marched are marked as reused.
+		//The walk doesn't start at the center ray's bounds, since the pixel's other rays may hit
+		//the fractal before them.
+		startDistance = reprojection.march(position, direction, startDistance,
+			clip(bounds, maxDistance));
+		
+		if(reuseColors && !Double.isInfinite(startDistance))
+		{
+			reusedColor = reprojection.color(position, direction, startDistance, edgeThreshold);
+			
+			//Only reuse the color if the ray really hits the surface just beyond where the walk
+			//stopped, since it may pass through a hole that's smaller than the last frame's
+			//pixels.
+			if(reusedColor >= 0 && !hitsSurface(position, direction, startDistance))
+			{
+				reusedColor = -1;
+			}
+		}
+		
+		if(Double.isInfinite(startDistance) || reusedColor >= 0)
+		{
+			reprojection.markReused(x, y);
+		}
+		
+		return startDistance;
+	}
+	
+	//Returns whether the given ray (with a normalized direction) hits the fractal within the
+	//reprojection's surface window beyond the given distance, marching it from there.
+	private boolean hitsSurface(Vector3 position, Vector3 direction, double distance)
+	{
+		Ray ray = new Ray(position, direction);
+		
+		ray.setStartDistance(distance);
+		ray.setPixelFootprint(pixelFootprint, 0.0);
+		ray.march(fractal.getMinDistance(), distance + reprojection.getSurfaceWindow(distance),
+			fractal);
+		distanceEstimates += ray.getSteps();
+		primarySteps += ray.getSteps();
+		
+		return ray.intersected();
+	}
+	
+	//Marches the rays in the given packet and adds the resulting colors to the color sums of the
+	//pixels that the rays belong to, keeping the nearest hit of each pixel's rays as its depth.
+	//The pixels are given by their positions in the tile's part of the given row, and each ray's
+	//sample number within its pixel is given for the G-buffer. Shadow rays are marched in packets
+	//as well.
+	private void renderPacket(RayPacket packet, RayPacket shadowPacket, int y, int[] pixels,
+		int[] pixelSamples, double[][] colorSums, double[] pixelDepths)
+	{
+		double minDistance = fractal.getMinDistance();
+		Vector3[] intersections = new Vector3[packet.size()], normals = new Vector3[packet.size()];
+		Vector3 position = camera.getPosition(), gradient;
+		double[] cameraDistances = new double[packet.size()], openness = new double[packet.size()];
+		int row = y * camera.getWidth() + tileX;
+		
+		packet.march(minDistance, fractal);
+		distanceEstimates += packet.getSteps();
+		raysMarched += packet.size();
+		
+		//Estimate the normal and ambient openness at each ray's point of intersection, and store
+		//them in the G-buffer if there is one.
+		for(int i = 0; i < packet.size(); i++)
+		{
+			if(packet.intersected(i))
+			{
+				intersections[i] = packet.getIntersection(i);
+				gradient = gradient(intersections[i], minDistance);
+				normals[i] = Vector3.normalize(gradient);
+				openness[i] = openness(gradient);
+				cameraDistances[i] = Vector3.subtract(intersections[i], position).magnitude();
+				pixelDepths[pixels[i]] = Math.min(pixelDepths[pixels[i]], cameraDistances[i]);
+			}
+			
+			if(gBuffer != null)
+			{
+				gBuffer.put(row + pixels[i], pixelSamples[i], intersections[i], normals[i],
+					openness[i]);
+			}
+		}
+		
+		shadePacket(shadowPacket, packet.size(), intersections, normals, openness, cameraDistances,
+			pixels, colorSums);
+		packet.clear();
+	}
+	
+	//Colors the given number of points of intersection (null for rays that missed) and adds the
+	//colors to the color sums of the pixels that the rays belong to. A packet of shadow rays is
+	//marched for each point light.
+	private void shadePacket(RayPacket shadowPacket, int size, Vector3[] intersections,
+		Vector3[] normals, double[] openness, double[] cameraDistances, int[] pixels,
+		double[][] colorSums)
+	{
+		double minDistance = fractal.getMinDistance();
+		double[][] colors = new double[size][];
+		int[] rays = new int[size];
+		Vector3 lightVector, scaledNormal, endpoint;
+		double[] bounds;
+		double maxShadowDistance;
+		int color, index = 0;
+		Boolean visible;
+		
+		//Estimate the ambient lighting at each ray's point of intersection.
+		for(int i = 0; i < size; i++)
+		{
+			colors[i] = ambientLight.getColor();
+			
+			if(intersections[i] != null)
+			{
+				colors[i] = ambientColor(intersections[i], openness[i], normals[i]);
+			}
+		}
+		
+		//March one packet of shadow rays for each point light.
+		for(Light light : lights)
+		{
+			shadowPacket.clear();
+			
+			for(int i = 0; i < size; i++)
+			{
+				if(intersections[i] != null)
+				{
+					lightVector = Vector3.subtract(light.getPosition(), intersections[i]);
+					visible = cachedVisibility(intersections[i], cameraDistances[i], index);
+					
+					//Color the surface now if the light's visibility is cached.
+					if(visible != null)
+					{
+						if(visible)
+						{
+							addDiffuseColor(colors[i], normals[i], Vector3.normalize(lightVector),
+								lightVector.magnitude(), light);
+						}
+						
+						continue;
+					}
+					
+					scaledNormal = Vector3.scale(normals[i], shadowOffset(cameraDistances[i]));
+					endpoint = Vector3.add(intersections[i], scaledNormal);
+					bounds = fractal.clip(endpoint, Vector3.normalize(lightVector));
+					rays[shadowPacket.size()] = i;
+					
+					maxShadowDistance = clip(bounds, lightVector.magnitude());
+					
+					shadowPacket.add(endpoint, lightVector, 0.0, maxShadowDistance,
+						cameraDistances[i]);
+				}
+			}
+			
+			shadowPacket.march(minDistance, fractal);
+			distanceEstimates += shadowPacket.getSteps();
+			raysMarched += shadowPacket.size();
+			
+			//Color each surface that the light isn't obstructed from.
+			for(int i = 0; i < shadowPacket.size(); i++)
+			{
+				cacheVisibility(intersections[rays[i]], cameraDistances[rays[i]], index,
+					!shadowPacket.intersected(i));
+				
+				if(!shadowPacket.intersected(i))
+				{
+					lightVector = Vector3.subtract(light.getPosition(), intersections[rays[i]]);
+					
+					addDiffuseColor(colors[rays[i]], normals[rays[i]], shadowPacket.getDirection(i),
+						lightVector.magnitude(), light);
+				}
+			}
+			
+			index++;
+		}
+		
+		//Add each ray's color to its pixel's color sums.
+		for(int i = 0; i < size; i++)
+		{
+			color = color(colors[i]);
+			colorSums[pixels[i]][0] += (double) (color >> 16);
+			colorSums[pixels[i]][1] += (double) ((color >> 8) & 0xFF);
+			colorSums[pixels[i]][2] += (double) (color & 0xFF);
+		}
+	}
+	
+	//Renders a pixel and keeps the nearest hit of its rays as its depth. During a progressive
+	//render, the sample already rendered at the grid point nearest the pixel's center is reused
+	//(and is already in the G-buffer, if there is one).
 	private void renderPixel(int x, int y)
 	{
 		Vector3[][] grid = camera.pixelGrid(x, y, antialiasingFactor);
-		double red = 0.0, green = 0.0, blue = 0.0;
+		int preview = samples == null ? -1 : antialiasingFactor / 2;
+		double red = 0.0, green = 0.0, blue = 0.0, startDistance = startDistance(x, y);
+		double pixelDepth = Double.POSITIVE_INFINITY;
+		long start = System.nanoTime(), estimates = distanceEstimates, steps = primarySteps;
+		long shadows = shadowSteps;
+		int color, index = y * camera.getWidth() + x;
+		
+		//Reuse the last frame's color if the reprojection allows it.
+		if(reusedColor >= 0)
+		{
+			setPixel(x, y, reusedColor);
+			
+			pixelDepth = startDistance;
+		}
+		else
+		{
+			for(int i = 0; i < grid.length; i++)
+			{
+				for(int j = 0; j < grid[i].length; j++)
+				{
+					if(i == preview && j == preview)
+					{
+						color = samples[index];
+						pixelDepth = Math.min(pixelDepth, depths[index]);
+					}
+					else
+					{
+						color = renderSubpixel(grid[j][i], startDistance);
+						pixelDepth = Math.min(pixelDepth, depth);
+						
+						storeSample(index, i * antialiasingFactor + j);
+					}
+					
+					red += (double) (color >> 16);
+					green += (double) ((color >> 8) & 0xFF);
+					blue += (double) (color & 0xFF);
+				}
+			}
+			
+			colorPixel(x, y, red, green, blue);
+		}
+		
+		if(depths != null)
+		{
+			depths[index] = pixelDepth;
+		}
+		
+		//Record the pixel's costs.
+		if(costMap != null)
+		{
+			costMap.record(x, y, primarySteps - steps, distanceEstimates - estimates,
+				shadowSteps - shadows, System.nanoTime() - start);
+		}
+	}
+	
+	//Renders one sample of a pixel for a progressive pass and stores it. The sample is taken at
+	//the point of the pixel's antialiasing grid nearest its center, which is the center itself if
+	//the antialiasing factor is odd, so the antialiasing pass can reuse it. The pixel's color is
+	//also used for the pixels in the tile in the step-by-step block above and to the right of it
+	//until they're rendered by a finer pass.
+	private void renderSample(int x, int y)
+	{
+		long start = System.nanoTime(), estimates = distanceEstimates, steps = primarySteps;
+		long shadows = shadowSteps;
+		double startDistance = startDistance(x, y);
 		int color;
 		
-		for(int i = 0; i < grid.length; i++)
+		//Reuse the last frame's color if the reprojection allows it.
+		if(reusedColor >= 0)
+		{
+			color = reusedColor;
+			depth = startDistance;
+		}
+		else
 		{
-			for(int j = 0; j < grid[i].length; j++)
+			color = renderSubpixel(camera.pixelGrid(x, y, antialiasingFactor)
+				[antialiasingFactor / 2][antialiasingFactor / 2], startDistance);
+			
+			//Store the sample as that point of the pixel's antialiasing grid.
+			storeSample(y * camera.getWidth() + x,
+				antialiasingFactor / 2 * (antialiasingFactor + 1));
+		}
+		
+		samples[y * camera.getWidth() + x] = color;
+		depths[y * camera.getWidth() + x] = depth;
+		
+		for(int i = y; i < Math.min(y + step, tileY + tileHeight); i++)
+		{
+			for(int j = x; j < Math.min(x + step, tileX + tileWidth); j++)
 			{
-				color = renderSubpixel(grid[j][i]);
-				red += (double) (color >> 16);
-    			green += (double) ((color >> 8) & 0xFF);
-    			blue += (double) (color & 0xFF);
+				setPixel(j, i, color);
 			}
 		}
 		
-		red = Math.round(red / Math.pow((double) antialiasingFactor, 2.0));
-    	green = Math.round(green / Math.pow((double) antialiasingFactor, 2.0));
-    	blue = Math.round(blue / Math.pow((double) antialiasingFactor, 2.0));
-    	
-		camera.colorPixel(x, y, ((int) red << 16) + ((int) green << 8) + (int) blue);
+		//Record the sample's costs.
+		if(costMap != null)
+		{
+			costMap.record(x, y, primarySteps - steps, distanceEstimates - estimates,
+				shadowSteps - shadows, System.nanoTime() - start);
+		}
 	}
 	
-	//Determines the color at the given point on the image plane.
-	private int renderSubpixel(Vector3 position)
+	//Renders the tile's part of a row of pixels, marching their rays in the given packets.
+	private void renderRow(int y, RayPacket packet, RayPacket shadowPacket)
+	{
+		Vector3[][] grid;
+		Vector3 position = camera.getPosition(), direction;
+		double[][] colorSums = new double[tileWidth][3];
+		double[] bounds, pixelDepths = new double[tileWidth];
+		double startDistance, samples = Math.pow((double) antialiasingFactor, 2.0);
+		int[] pixels = new int[packetSize], pixelSamples = new int[packetSize];
+		
+		Arrays.fill(pixelDepths, Double.POSITIVE_INFINITY);
+		
+		//Add the ray through each subpixel to the packet, rendering the packet when it's full.
+		for(int x = tileX; x < tileX + tileWidth; x++)
+		{
+			grid = camera.pixelGrid(x, y, antialiasingFactor);
+			startDistance = startDistance(x, y);
+			
+			//Reuse the last frame's color for all of the pixel's samples if the reprojection
+			//allows it.
+			if(reusedColor >= 0)
+			{
+				colorSums[x - tileX][0] = samples * (double) (reusedColor >> 16);
+				colorSums[x - tileX][1] = samples * (double) ((reusedColor >> 8) & 0xFF);
+				colorSums[x - tileX][2] = samples * (double) (reusedColor & 0xFF);
+				pixelDepths[x - tileX] = startDistance;
+				continue;
+			}
+			
+			for(int i = 0; i < grid.length; i++)
+			{
+				for(int j = 0; j < grid[i].length; j++)
+				{
+					direction = Vector3.subtract(grid[j][i], position);
+					bounds = fractal.clip(position, Vector3.normalize(direction));
+					pixels[packet.size()] = x - tileX;
+					pixelSamples[packet.size()] = i * antialiasingFactor + j;
+					
+					packet.add(position, direction, bounds == null ? startDistance :
+						Math.max(startDistance, bounds[0]), clip(bounds, maxDistance));
+					
+					if(packet.isFull())
+					{
+						renderPacket(packet, shadowPacket, y, pixels, pixelSamples, colorSums,
+							pixelDepths);
+					}
+				}
+			}
+		}
+		
+		//Render the remaining rays.
+		if(packet.size() > 0)
+		{
+			renderPacket(packet, shadowPacket, y, pixels, pixelSamples, colorSums, pixelDepths);
+		}
+		
+		for(int x = 0; x < tileWidth; x++)
+		{
+			colorPixel(tileX + x, y, colorSums[x][0], colorSums[x][1], colorSums[x][2]);
+		}
+		
+		if(depths != null)
+		{
+			System.arraycopy(pixelDepths, 0, depths, y * camera.getWidth() + tileX, tileWidth);
+		}
+	}
+	
+	//Determines the color at the given point on the image plane. The ray is marched from the
+	//given distance from the camera, and the distance to its intersection (infinity if it missed)
+	//is kept as the depth. The point of intersection (null if it missed), normal and ambient
+	//openness are kept for the G-buffer.
+	private int renderSubpixel(Vector3 position, double startDistance)
 	{
 		//Vector3 pixelPosition = camera.pixelPosition((double) x, (double) y);
 		Vector3 direction = Vector3.subtract(position, camera.getPosition());
 		Ray ray = new Ray(camera.getPosition(), direction);
-		Vector3 intersection = ray.march(fractal.getMinDistance(), maxDistance, fractal);
 		double[] colors = ambientLight.getColor();
-		int color = 0;
+		double[] bounds = fractal.clip(camera.getPosition(), ray.getDirection());
+		
+		ray.setRelaxationFactor(relaxationFactor);
+		ray.setDistanceGrid(distanceGrid);
+		ray.setStartDistance(bounds == null ? startDistance : Math.max(startDistance, bounds[0]));
+		ray.setPixelFootprint(pixelFootprint, 0.0);
+		
+		//Only march within the fractal's bounding volume. Rays that miss it don't march at all.
+		intersection = ray.march(fractal.getMinDistance(), clip(bounds, maxDistance), fractal);
+		distanceEstimates += ray.getSteps();
+		primarySteps += ray.getSteps();
+		raysMarched++;
+		depth = Double.POSITIVE_INFINITY;
 		
 		//Determines the lighting at the ray's point of intersection if it intersected.
 		if(ray.intersected())
 		{
-			//Estimate the ambient intensity.
+			//Estimate the normal and how open the surface is.
 			Vector3 gradient = gradient(intersection, fractal.getMinDistance());
-			Vector3 normal = Vector3.normalize(gradient), lightVector, scaledNormal;
-			double[] ambientFractalColor = fractal.getAmbientColor();
-			double[] diffuseFractalColor = fractal.getDiffuseColor(), lightColor;
-			double intensity = ambientIntensity(intersection, gradient, normal), lightDistance, dot;
 			
-			//Color the surface according to the ambient intensity and color.
-			for(int i = 0; i < colors.length; i++)
+			normal = Vector3.normalize(gradient);
+			openness = openness(gradient);
+			depth = Vector3.subtract(intersection, camera.getPosition()).magnitude();
+			colors = shade(intersection, normal, openness, depth);
+		}
+		else
+		{
+			intersection = null;
+		}
+		
+		//Determine the pixel's color.
+		return color(colors);
+	}
+	
+	//Returns the color values at the given point of intersection with the given normal, ambient
+	//openness and distance from the camera, lit by the ambient light and each point light that
+	//isn't obstructed.
+	private double[] shade(Vector3 intersection, Vector3 normal, double openness,
+		double cameraDistance)
+	{
+		double[] colors = ambientColor(intersection, openness, normal), bounds;
+		Vector3 offset = Vector3.scale(normal, shadowOffset(cameraDistance)), lightVector;
+		double lightDistance;
+		Ray ray;
+		
+		//Color the surface according to each point light.
+		for(int i = 0; i < lights.size(); i++)
+		{
+			Light light = lights.get(i);
+			Boolean visible = cachedVisibility(intersection, cameraDistance, i);
+			
+			lightVector = Vector3.subtract(light.getPosition(), intersection);
+			lightDistance = lightVector.magnitude();
+			ray = new Ray(Vector3.add(intersection, offset), lightVector);
+			
+			//Determine whether the light is obstructed within the bounding volume, unless its
+			//visibility is cached.
+			if(visible == null)
 			{
-				colors[i] *= intensity * ambientFractalColor[i];
+				bounds = fractal.clip(ray.getEndpoint(), ray.getDirection());
+				
+				ray.setRelaxationFactor(relaxationFactor);
+				ray.setDistanceGrid(distanceGrid);
+				ray.setPixelFootprint(pixelFootprint, cameraDistance);
+				ray.march(fractal.getMinDistance(), clip(bounds, lightDistance), fractal);
+				distanceEstimates += ray.getSteps();
+				shadowSteps += ray.getSteps();
+				raysMarched++;
+				visible = !ray.intersected();
+				
+				cacheVisibility(intersection, cameraDistance, i, visible);
 			}
 			
-			//Color the surface according to each point light.
-			for(Light light : lights)
+			//If no obstruction exists, color the surface according to the light's color and
+			//intensity.
+			if(visible)
 			{
-				lightVector = Vector3.subtract(light.getPosition(), intersection);
-				lightDistance = lightVector.magnitude();
-				scaledNormal = Vector3.scale(normal, fractal.getMinDistance());
-				ray = new Ray(Vector3.add(intersection, scaledNormal), lightVector);
+				addDiffuseColor(colors, normal, ray.getDirection(), lightDistance, light);
+			}
+		}
+		
+		return colors;
+	}
+	
+	//Renders each pixel in the worker's tile and records the time taken. The pixels are colored
+	//in a buffer for the tile, which is copied to the image at the end. If the render is
+	//cancelled, only the rows rendered by then are copied.
+	public void run()
+	{
+		long start = System.nanoTime();
+		int rows;
+		
+		//Skip the tile if the render has been cancelled.
+		if(isCancelled())
+		{
+			return;
+		}
+		
+		thread = Thread.currentThread();
+		pixels = new int[tileWidth * tileHeight];
+		
+		//Start from the colors of the earlier passes if there are any.
+		if(samples != null)
+		{
+			camera.getPixels(tileX, tileY, tileWidth, tileHeight, pixels);
+		}
+		
+		if(relight)
+		{
+			rows = relightPixels();
+		}
+		else if(step > 0)
+		{
+			rows = renderSamples();
+		}
+		else
+		{
+			rows = renderPixels();
+		}
+		
+		camera.colorPixels(tileX, tileY, tileWidth, rows, pixels);
+		
+		time = System.nanoTime() - start;
+	}
+	
+	//Returns whether the worker's render has been cancelled.
+	private boolean isCancelled()
+	{
+		return token != null && token.isCancelled();
+	}
+	
+	//Shades each of the tile's pixels again from the G-buffer. Returns the number of rows shaded
+	//before the render was cancelled, if it was.
+	private int relightPixels()
+	{
+		RayPacket shadowPacket = null;
+		int i;
+		
+		//March the shadow rays in packets if a packet size is set and costs aren't being
+		//recorded.
+		if(packetSize > 0 && costMap == null)
+		{
+			shadowPacket = new RayPacket(packetSize);
+			
+			shadowPacket.setRelaxationFactor(relaxationFactor);
+			shadowPacket.setPixelFootprint(pixelFootprint);
+			shadowPacket.setDistanceEngine(distanceEngine);
+			shadowPacket.setDistanceGrid(distanceGrid);
+		}
+		
+		for(i = tileY; i < tileY + tileHeight && !isCancelled(); i++)
+		{
+			if(shadowPacket != null)
+			{
+				relightRow(i, shadowPacket);
+				continue;
+			}
+			
+			for(int j = tileX; j < tileX + tileWidth; j++)
+			{
+				relightPixel(j, i);
+			}
+		}
+		
+		return i - tileY;
+	}
+	
+	//Shades a pixel's samples again from the G-buffer and keeps the nearest of their points of
+	//intersection as its depth.
+	private void relightPixel(int x, int y)
+	{
+		Vector3 point;
+		double red = 0.0, green = 0.0, blue = 0.0, pixelDepth = Double.POSITIVE_INFINITY;
+		double cameraDistance;
+		double[] colors;
+		long start = System.nanoTime(), estimates = distanceEstimates, shadows = shadowSteps;
+		int color, index = y * camera.getWidth() + x;
+		
+		for(int i = 0; i < gBuffer.getSamples(); i++)
+		{
+			point = gBuffer.getIntersection(index, i);
+			colors = ambientLight.getColor();
+			
+			if(point != null)
+			{
+				cameraDistance = Vector3.subtract(point, camera.getPosition()).magnitude();
+				colors = shade(point, gBuffer.getNormal(index, i), gBuffer.getOpenness(index, i),
+					cameraDistance);
+				pixelDepth = Math.min(pixelDepth, cameraDistance);
+			}
+			
+			color = color(colors);
+			red += (double) (color >> 16);
+			green += (double) ((color >> 8) & 0xFF);
+			blue += (double) (color & 0xFF);
+		}
+		
+		colorPixel(x, y, red, green, blue);
+		
+		if(depths != null)
+		{
+			depths[index] = pixelDepth;
+		}
+		
+		//Record the pixel's costs. No primary rays are marched.
+		if(costMap != null)
+		{
+			costMap.record(x, y, 0, distanceEstimates - estimates, shadowSteps - shadows,
+				System.nanoTime() - start);
+		}
+	}
+	
+	//Shades the samples of the tile's part of a row of pixels again from the G-buffer, marching
+	//their shadow rays in the given packet.
+	private void relightRow(int y, RayPacket shadowPacket)
+	{
+		Vector3 position = camera.getPosition();
+		Vector3[] intersections = new Vector3[packetSize], normals = new Vector3[packetSize];
+		double[][] colorSums = new double[tileWidth][3];
+		double[] openness = new double[packetSize], cameraDistances = new double[packetSize];
+		double[] pixelDepths = new double[tileWidth];
+		int[] pixels = new int[packetSize];
+		int index, pixel, size = 0;
+		
+		Arrays.fill(pixelDepths, Double.POSITIVE_INFINITY);
+		
+		//Add each sample to the packet, shading the packet when it's full.
+		for(int x = tileX; x < tileX + tileWidth; x++)
+		{
+			index = y * camera.getWidth() + x;
+			
+			for(int i = 0; i < gBuffer.getSamples(); i++)
+			{
+				intersections[size] = gBuffer.getIntersection(index, i);
+				pixel = x - tileX;
+				pixels[size] = pixel;
 				
-				//Determine whether the light is obstructed.
-				ray.march(fractal.getMinDistance(), lightDistance, fractal);
+				if(intersections[size] != null)
+				{
+					normals[size] = gBuffer.getNormal(index, i);
+					openness[size] = gBuffer.getOpenness(index, i);
+					cameraDistances[size] =
+						Vector3.subtract(intersections[size], position).magnitude();
+					pixelDepths[pixel] = Math.min(pixelDepths[pixel], cameraDistances[size]);
+				}
 				
-				//If no obstruction exists, color the surface according to the light's color and
-				//intensity.
-				if(!ray.intersected())
+				if(++size == packetSize)
 				{
-					dot = Vector3.dot(normal, ray.getDirection());
-					intensity = Math.max(0.0, dot) / Math.pow(lightDistance, 2.0);
-					lightColor = light.getColor();
+					shadePacket(shadowPacket, size, intersections, normals, openness,
+						cameraDistances, pixels, colorSums);
 					
-					for(int i = 0; i < colors.length; i++)
-					{
-						colors[i] += intensity * lightColor[i] * diffuseFractalColor[i];
-					}
+					size = 0;
 				}
 			}
 		}
 		
-		//Determine the pixel's color.
-		for(int i = 0; i < colors.length; i++)
+		//Shade the remaining samples.
+		if(size > 0)
 		{
-			color += (int) Math.round((double) 0xFF * Math.min(1.0, colors[i])) << 16 - 8 * i;
+			shadePacket(shadowPacket, size, intersections, normals, openness, cameraDistances,
+				pixels, colorSums);
 		}
 		
-		return color;
+		for(int x = 0; x < tileWidth; x++)
+		{
+			colorPixel(tileX + x, y, colorSums[x][0], colorSums[x][1], colorSums[x][2]);
+		}
+		
+		if(depths != null)
+		{
+			System.arraycopy(pixelDepths, 0, depths, y * camera.getWidth() + tileX, tileWidth);
+		}
 	}
 	
-	//Render each pixel assigned to the worker.
-	public void run()
+	//Renders one sample for each of the tile's pixels in the current pass of a progressive render.
+	//Returns the number of rows rendered before the render was cancelled, if it was.
+	private int renderSamples()
 	{
-		for(int i = id; i < camera.getHeight(); i += threads)
+		int i;
+		
+		for(i = tileY; i < tileY + tileHeight && !isCancelled(); i++)
 		{
-			for(int j = 0; j < camera.getWidth(); j++)
+			for(int j = tileX; j < tileX + tileWidth; j++)
 			{
-				renderPixel(j, i);
+				if(inPass(j, i))
+				{
+					renderSample(j, i);
+				}
 			}
 		}
+		
+		return i - tileY;
+	}
+	
+	//Renders each of the tile's pixels. Returns the number of rows rendered before the render was
+	//cancelled, if it was.
+	private int renderPixels()
+	{
+		RayPacket packet = null, shadowPacket = null;
+		int i;
+		
+		//Render the rows in packets if a packet size is set, costs aren't being recorded and no
+		//samples are being reused.
+		if(packetSize > 0 && costMap == null && samples == null)
+		{
+			packet = new RayPacket(packetSize);
+			shadowPacket = new RayPacket(packetSize);
+			
+			packet.setRelaxationFactor(relaxationFactor);
+			packet.setPixelFootprint(pixelFootprint);
+			packet.setDistanceEngine(distanceEngine);
+			packet.setDistanceGrid(distanceGrid);
+			shadowPacket.setRelaxationFactor(relaxationFactor);
+			shadowPacket.setPixelFootprint(pixelFootprint);
+			shadowPacket.setDistanceEngine(distanceEngine);
+			shadowPacket.setDistanceGrid(distanceGrid);
+		}
+		
+		for(i = tileY; i < tileY + tileHeight && !isCancelled(); i++)
+		{
+			if(packet != null)
+			{
+				renderRow(i, packet, shadowPacket);
+				continue;
+			}
+			
+			for(int j = tileX; j < tileX + tileWidth; j++)
+			{
+				//Keep the sample already rendered for pixels that aren't on an edge.
+				if(edges != null && !edges[i * camera.getWidth() + j])
+				{
+					setPixel(j, i, samples[i * camera.getWidth() + j]);
+				}
+				else
+				{
+					renderPixel(j, i);
+				}
+			}
+		}
+		
+		return i - tileY;
+	}
+	
+	//Stores the point of intersection, normal and ambient openness kept by the last call to
+	//renderSubpixel in the G-buffer, if there is one, as the given sample of the pixel with the
+	//given index.
+	private void storeSample(int pixel, int sample)
+	{
+		if(gBuffer != null)
+		{
+			gBuffer.put(pixel, sample, intersection, normal, openness);
+		}
+	}
+	
+	//Sets the given pixel in the tile's buffer with the given color.
+	private void setPixel(int x, int y, int color)
+	{
+		pixels[(y - tileY) * tileWidth + x - tileX] = color;
 	}
 }